@@ -0,0 +1,22 @@
+package benchmark;
+
+/**
+ * Grupo de mediciones que ejecuta {@link BenchmarkRunner}.
+ *
+ * @author Sergio
+ */
+public interface Benchmark {
+
+    /**
+     * @return nombre del grupo, usado para filtrar desde la línea de órdenes.
+     */
+    String name();
+
+    /**
+     * Prepara el escenario y lanza sus mediciones.
+     *
+     * @param harness el arnés que mide y registra los resultados.
+     * @throws Exception si falla la preparación o una medición.
+     */
+    void run(Harness harness) throws Exception;
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compara dos ejecuciones guardadas en el CSV de {@link Harness}.
+ *
+ * <pre>
+ * java -cp build/bench benchmark.BenchmarkCompare bench.csv abc1234 def5678
+ * </pre>
+ *
+ * @author Sergio
+ */
+public class BenchmarkCompare {
+
+    /**
+     * Imprime, para cada medición presente en ambas ejecuciones, las
+     * operaciones por segundo y la variación relativa.
+     *
+     * @param args archivo CSV, etiqueta base y etiqueta nueva.
+     * @throws IOException si no se puede leer el archivo.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Uso: BenchmarkCompare <archivo.csv> <etiqueta-base> <etiqueta-nueva>");
+            System.exit(2);
+        }
+        Map<String, Double> base = load(args[0], args[1]);
+        Map<String, Double> current = load(args[0], args[2]);
+
+        System.out.printf(Locale.ROOT, "%-48s %14s %14s %9s%n", "benchmark [hilos]", args[1], args[2], "cambio");
+        for (Map.Entry<String, Double> entry : base.entrySet()) {
+            Double now = current.get(entry.getKey());
+            if (now != null) {
+                double change = 100.0 * (now - entry.getValue()) / entry.getValue();
+                System.out.printf(Locale.ROOT, "%-48s %14.0f %14.0f %+8.1f%%%n", entry.getKey(), entry.getValue(), now, change);
+            }
+        }
+    }
+
+    /**
+     * Carga las operaciones por segundo de una ejecución. Si la etiqueta se
+     * repite, prevalece la última.
+     *
+     * @param file archivo CSV.
+     * @param label etiqueta de la ejecución.
+     * @return operaciones por segundo por medición.
+     * @throws IOException si no se puede leer el archivo.
+     */
+    private static Map<String, Double> load(String file, String label) throws IOException {
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            String[] fields = line.split(",");
+            if (fields.length >= 4 && fields[0].equals(label)) {
+                results.put(fields[1] + " [" + fields[2] + "]", Double.parseDouble(fields[3]));
+            }
+        }
+        return results;
+    }
+}
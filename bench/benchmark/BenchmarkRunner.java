@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Punto de entrada de los benchmarks del servidor.
+ *
+ * <p>
+ * Apunta el servidor a la base de datos en memoria de {@link InMemoryDriver}
+ * (salvo que se indique otra con {@code -Ddb.url}) y ejecuta todos los grupos,
+ * o solo los que se pasen como argumentos:
+ * </p>
+ *
+ * <pre>
+ * javac -cp build/classes:Libreria.jar -d build/bench $(find bench -name '*.java')
+ * java -cp build/classes:build/bench:Libreria.jar \
+ *     -Dbench.label=$(git rev-parse --short HEAD) -Dbench.output=bench.csv \
+ *     benchmark.BenchmarkRunner [codec] [pool] [dao] [dispatch]
+ * </pre>
+ *
+ * @author Sergio
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Ejecuta los benchmarks.
+     *
+     * @param args nombres de los grupos a ejecutar; vacío para todos.
+     * @throws Exception si falla algún benchmark.
+     */
+    public static void main(String[] args) throws Exception {
+        InMemoryDriver.register();
+        setDefault("db.url", "jdbc:inmemory:bench");
+        setDefault("db.user", "bench");
+        setDefault("db.password", "bench");
+        setDefault("db.poolMinSize", "8");
+        setDefault("db.poolMaxSize", "8");
+        // Los mensajes INFO por petición distorsionarían las medidas
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        List<Benchmark> benchmarks = Arrays.asList(
+                new CodecBenchmark(),
+                new PoolBenchmark(),
+                new DaoBenchmark(),
+                new server.DispatchBenchmark());
+        List<String> selected = Arrays.asList(args);
+
+        Harness harness = new Harness();
+        harness.printHeader();
+        for (Benchmark benchmark : benchmarks) {
+            if (selected.isEmpty() || selected.contains(benchmark.name())) {
+                benchmark.run(harness);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Asigna una propiedad del sistema si no se ha indicado otra.
+     *
+     * @param key la propiedad.
+     * @param value el valor por defecto.
+     */
+    static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import server.BinaryCodec;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Compara la serialización de Java de {@link Message} con el formato binario
+ * de {@link BinaryCodec}: mensajes codificados y decodificados por segundo y
+ * bytes enviados por mensaje.
+ *
+ * <p>
+ * La serialización de Java se mide como en el servidor, con un
+ * {@code ObjectOutputStream} nuevo por conexión, es decir, incluyendo la
+ * cabecera del flujo y los descriptores de clase.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class CodecBenchmark implements Benchmark {
+
+    @Override
+    public String name() {
+        return "codec";
+    }
+
+    @Override
+    public void run(Harness harness) throws Exception {
+        Message message = sampleMessage();
+        byte[] serialized = serialize(message);
+        byte[] binary = BinaryCodec.encode(message);
+        System.out.printf("%-40s %7s %14d%n", "bytes serializacion Java", "-", serialized.length);
+        System.out.printf("%-40s %7s %14d%n", "bytes binario (cabecera + longitud)", "-",
+                BinaryCodec.MAGIC_SIZE * 2 + binary.length);
+
+        harness.measure("codec.serializacion encode", 1, () -> Harness.sink += serialize(message).length);
+        harness.measure("codec.serializacion decode", 1,
+                () -> Harness.sink += deserialize(serialized).getType().ordinal());
+        harness.measure("codec.binario encode", 1, () -> Harness.sink += BinaryCodec.encode(message).length);
+        harness.measure("codec.binario decode", 1, () -> Harness.sink += BinaryCodec.read(
+                new DataInputStream(new ByteArrayInputStream(binary))).getType().ordinal());
+    }
+
+    /**
+     * @return un mensaje de registro con todos los campos rellenos.
+     */
+    static Message sampleMessage() {
+        User user = new User();
+        user.setName("Nombre Apellido");
+        user.setStreet("Calle Mayor 1");
+        user.setZip("48001");
+        user.setCity("Bilbao");
+        user.setLogin("usuario@example.com");
+        user.setPass("abcd*1234");
+        user.setActive(true);
+        return new Message(MessageType.SIGN_UP_REQUEST, user);
+    }
+
+    /**
+     * Serializa un mensaje con un flujo nuevo, como lo envía un cliente.
+     *
+     * @param message el mensaje.
+     * @return los bytes enviados.
+     * @throws IOException si falla la serialización.
+     */
+    private static byte[] serialize(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializa un mensaje con un flujo nuevo, como lo recibe el servidor.
+     *
+     * @param bytes los bytes recibidos.
+     * @return el mensaje.
+     * @throws Exception si falla la deserialización.
+     */
+    private static Message deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Message) input.readObject();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import dbserver.Dao;
+import dbserver.PostgresConnectionPool;
+import java.util.concurrent.atomic.AtomicLong;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Mide {@link Dao#signIn(User)} y {@link Dao#signUp(User)} contra la base de
+ * datos en memoria de {@link InMemoryDriver}, de modo que se mide el coste del
+ * propio servidor (pool, sentencias, mapeo de resultados) sin la red.
+ *
+ * @author Sergio
+ */
+public class DaoBenchmark implements Benchmark {
+
+    /**
+     * Usuarios precargados para el inicio de sesión.
+     */
+    private static final int USERS = 1000;
+
+    @Override
+    public String name() {
+        return "dao";
+    }
+
+    @Override
+    public void run(Harness harness) throws Exception {
+        InMemoryDriver.Database database = InMemoryDriver.database(System.getProperty("db.url"));
+        for (int i = 0; i < USERS; i++) {
+            database.addUser("dao-" + i, "secret", "Dao", true);
+        }
+        PostgresConnectionPool pool = new PostgresConnectionPool(8, 8);
+        Dao dao = new Dao(pool);
+        AtomicLong sequence = new AtomicLong();
+        try {
+            for (int threads : new int[]{1, 8}) {
+                harness.measure("dao.signIn", threads, () -> {
+                    User user = new User();
+                    user.setLogin("dao-" + (sequence.incrementAndGet() % USERS));
+                    user.setPass("secret");
+                    expect(dao.signIn(user), MessageType.LOGIN_OK);
+                });
+                harness.measure("dao.signUp", threads, () -> {
+                    User user = new User();
+                    user.setLogin("nuevo-" + sequence.incrementAndGet() + "@bench");
+                    user.setPass("secret");
+                    user.setName("Nuevo");
+                    user.setActive(true);
+                    expect(dao.signUp(user), MessageType.OK_RESPONSE);
+                });
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Comprueba el tipo de la respuesta para no medir un camino de error.
+     *
+     * @param response la respuesta.
+     * @param expected el tipo esperado.
+     */
+    static void expect(Message response, MessageType expected) {
+        if (response.getType() != expected) {
+            throw new IllegalStateException("Respuesta inesperada: " + response.getType());
+        }
+        Harness.sink += response.getType().ordinal();
+    }
+}
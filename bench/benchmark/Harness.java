@@ -0,0 +1,169 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Arnés de medición de rendimiento sin dependencias externas, al estilo de
+ * JMH: iteraciones de calentamiento descartadas, iteraciones de medida de
+ * duración fija, varios hilos concurrentes y un sumidero para que el JIT no
+ * elimine el trabajo medido.
+ *
+ * <p>
+ * Se configura con propiedades del sistema:
+ * </p>
+ * <ul>
+ * <li>{@code bench.warmup}: iteraciones de calentamiento (3).</li>
+ * <li>{@code bench.iterations}: iteraciones de medida (5).</li>
+ * <li>{@code bench.time}: duración de cada iteración en milisegundos
+ * (1000).</li>
+ * <li>{@code bench.label}: etiqueta de la ejecución, normalmente el commit
+ * ({@code local}).</li>
+ * <li>{@code bench.output}: archivo CSV al que se añaden los resultados, para
+ * compararlos con {@link BenchmarkCompare}.</li>
+ * </ul>
+ *
+ * @author Sergio
+ */
+public class Harness {
+
+    /**
+     * Sumidero de resultados; las operaciones medidas deben acumular aquí algo
+     * que dependa de su resultado.
+     */
+    public static volatile long sink;
+
+    private final int warmup = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final long time = Long.getLong("bench.time", 1000L);
+    private final String label = System.getProperty("bench.label", "local");
+    private final String output = System.getProperty("bench.output");
+
+    /**
+     * Indica a los hilos de la iteración en curso que sigan midiendo.
+     */
+    private volatile boolean running;
+
+    /**
+     * Imprime la cabecera de la tabla de resultados.
+     */
+    public void printHeader() {
+        System.out.printf(Locale.ROOT, "%-40s %7s %14s %12s %12s%n", "benchmark", "hilos", "ops/s", "+-", "ns/op");
+    }
+
+    /**
+     * Mide el rendimiento de una operación ejecutada en bucle por varios
+     * hilos.
+     *
+     * @param name nombre de la medición.
+     * @param threads número de hilos concurrentes.
+     * @param operation la operación a medir.
+     * @throws Exception si la operación falla.
+     */
+    public void measure(String name, int threads, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration(threads, operation);
+        }
+        double[] results = new double[iterations];
+        double sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            results[i] = iteration(threads, operation);
+            sum += results[i];
+        }
+        double mean = sum / iterations;
+        double variance = 0;
+        for (double result : results) {
+            variance += (result - mean) * (result - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        double nanosPerOp = mean > 0 ? 1e9 * threads / mean : 0;
+
+        System.out.printf(Locale.ROOT, "%-40s %7d %14.0f %12.0f %12.1f%n", name, threads, mean, error, nanosPerOp);
+        record(name, threads, mean, error, nanosPerOp);
+    }
+
+    /**
+     * Ejecuta una iteración de duración fija.
+     *
+     * @param threads número de hilos.
+     * @param operation la operación.
+     * @return operaciones por segundo del conjunto de hilos.
+     * @throws Exception si la operación falla en algún hilo.
+     */
+    private double iteration(int threads, Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        running = true;
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                try {
+                    start.await();
+                    while (running) {
+                        operation.run();
+                        count++;
+                    }
+                } catch (Exception event) {
+                    failure.compareAndSet(null, event);
+                    running = false;
+                }
+                counts[index] = count;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep(time);
+        running = false;
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += counts[t];
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return total / seconds;
+    }
+
+    /**
+     * Añade un resultado al archivo CSV, si está configurado.
+     *
+     * @param name nombre de la medición.
+     * @param threads número de hilos.
+     * @param mean media de operaciones por segundo.
+     * @param error desviación típica.
+     * @param nanosPerOp nanosegundos por operación y hilo.
+     * @throws IOException si no se puede escribir el archivo.
+     */
+    private void record(String name, int threads, double mean, double error, double nanosPerOp) throws IOException {
+        if (output == null) {
+            return;
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(output, true))) {
+            writer.printf(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.1f%n", label, name, threads, mean, error, nanosPerOp);
+        }
+    }
+
+    /**
+     * Operación medida que puede lanzar excepciones.
+     */
+    public interface Operation {
+
+        /**
+         * Ejecuta una vez la operación.
+         *
+         * @throws Exception si la operación falla.
+         */
+        void run() throws Exception;
+    }
+}
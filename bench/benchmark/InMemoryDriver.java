@@ -0,0 +1,618 @@
+package benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Driver JDBC en memoria que sustituye a PostgreSQL en benchmarks y pruebas de
+ * carga.
+ *
+ * <p>
+ * Solo entiende las consultas que lanza {@code dbserver.Dao} sobre
+ * {@code res_partner} y {@code res_users}, y guarda los usuarios en un mapa
+ * compartido por todas las conexiones. Acepta URLs de la forma
+ * {@code jdbc:inmemory:nombre} y, opcionalmente,
+ * {@code jdbc:inmemory:nombre?latencyMicros=200} para simular la latencia de
+ * red de cada consulta. Bases con distinto nombre son independientes.
+ * </p>
+ *
+ * <p>
+ * Para simular réplicas basta con dar a {@code db.replicas} URLs con el mismo
+ * nombre que la principal, que comparten sus datos. El parámetro
+ * {@code lagMillis} fija el retraso de replicación que devuelve la consulta de
+ * {@code dbserver.ReplicaRouter}, por ejemplo
+ * {@code jdbc:inmemory:bench?latencyMicros=200&lagMillis=5000}; un valor
+ * negativo simula una réplica que no recibe WAL y la consulta devuelve
+ * {@code NULL}.
+ * </p>
+ *
+ * <p>
+ * Para usarlo con el servidor basta con cargar esta clase y arrancar con
+ * {@code -Ddb.url=jdbc:inmemory:bench}.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class InMemoryDriver implements Driver {
+
+    /**
+     * Prefijo de las URLs que acepta el driver.
+     */
+    public static final String PREFIX = "jdbc:inmemory:";
+
+    /**
+     * Código SQLSTATE de PostgreSQL para violación de unicidad.
+     */
+    public static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Bases de datos por nombre.
+     */
+    private static final Map<String, Database> DATABASES = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new InMemoryDriver());
+        } catch (SQLException event) {
+            throw new ExceptionInInitializerError(event);
+        }
+    }
+
+    /**
+     * Registra el driver en {@link DriverManager}. Es idempotente.
+     */
+    public static void register() {
+        // El registro se hace al cargar la clase
+    }
+
+    /**
+     * Devuelve la base de datos de una URL, creándola si no existe.
+     *
+     * @param url URL {@code jdbc:inmemory:}.
+     * @return la base de datos.
+     */
+    public static Database database(String url) {
+        String name = url.substring(PREFIX.length());
+        int query = name.indexOf('?');
+        String key = query < 0 ? name : name.substring(0, query);
+        return DATABASES.computeIfAbsent(key, k -> new Database());
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(parameter(url, "latencyMicros"));
+        Database database = database(url);
+        database.connections.incrementAndGet();
+        return proxy(Connection.class, new ConnectionHandler(database, latencyNanos, parameter(url, "lagMillis")));
+    }
+
+    /**
+     * Lee un parámetro numérico de la parte {@code ?a=1&b=2} de una URL.
+     *
+     * @param url URL {@code jdbc:inmemory:}.
+     * @param name nombre del parámetro.
+     * @return su valor, o {@code 0} si no está.
+     */
+    private static long parameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return 0;
+        }
+        for (String pair : url.substring(query + 1).split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return Long.parseLong(pair.substring(name.length() + 1));
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * Crea un proxy dinámico de una interfaz JDBC.
+     *
+     * @param <T> tipo de la interfaz.
+     * @param type la interfaz.
+     * @param handler el manejador de las llamadas.
+     * @return el proxy.
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InMemoryDriver.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Valor por defecto para los métodos JDBC que no se simulan.
+     *
+     * @param proxy el proxy invocado.
+     * @param method el método invocado.
+     * @param args los argumentos.
+     * @return el valor por defecto del tipo de retorno.
+     */
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "inmemory@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                break;
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Datos de una base de datos en memoria.
+     */
+    public static class Database {
+
+        /**
+         * Usuarios por login.
+         */
+        private final Map<String, Row> users = new ConcurrentHashMap<>();
+
+        /**
+         * Nombres de los socios por id.
+         */
+        private final Map<Integer, String> partners = new ConcurrentHashMap<>();
+
+        /**
+         * Secuencias de ids y contadores.
+         */
+        private final AtomicInteger partnerIds = new AtomicInteger();
+        private final AtomicInteger userIds = new AtomicInteger();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger queries = new AtomicInteger();
+
+        /**
+         * Añade un usuario directamente, sin pasar por SQL.
+         *
+         * @param login login del usuario.
+         * @param password contraseña tal como se guarda en la tabla.
+         * @param name nombre del socio.
+         * @param active estado activo.
+         */
+        public void addUser(String login, String password, String name, boolean active) {
+            int partnerId = partnerIds.incrementAndGet();
+            partners.put(partnerId, name);
+            users.put(login, new Row(userIds.incrementAndGet(), partnerId, login, password, active));
+        }
+
+        /**
+         * @return número de usuarios.
+         */
+        public int userCount() {
+            return users.size();
+        }
+
+        /**
+         * @return número de conexiones abiertas desde el inicio.
+         */
+        public int connectionCount() {
+            return connections.get();
+        }
+
+        /**
+         * @return número de consultas ejecutadas desde el inicio.
+         */
+        public int queryCount() {
+            return queries.get();
+        }
+
+        /**
+         * Ejecuta una consulta de {@code Dao} con sus parámetros.
+         *
+         * @param sql texto de la consulta.
+         * @param params parámetros por posición.
+         * @return el resultado.
+         * @throws SQLException si la consulta no se reconoce o viola la
+         * unicidad del login.
+         */
+        List<Map<String, Object>> execute(String sql, Map<Integer, Object> params) throws SQLException {
+            queries.incrementAndGet();
+            if (sql.startsWith("SELECT u.id, p.name, u.active, u.password FROM res_users u JOIN res_partner p")) {
+                // Como en SQL, login = NULL no encuentra ninguna fila
+                Row row = params.get(1) == null ? null : users.get((String) params.get(1));
+                if (row == null) {
+                    return Collections.emptyList();
+                }
+                return rows("id", row.id, "name", partners.get(row.partnerId), "active", row.active, "password", row.password);
+            }
+            if (sql.startsWith("UPDATE res_users SET password")) {
+                for (Row row : users.values()) {
+                    synchronized (row) {
+                        if (row.id == (Integer) params.get(2) && row.password.equals(params.get(3))) {
+                            row.password = (String) params.get(1);
+                            return rows("count", 1);
+                        }
+                    }
+                }
+                return Collections.emptyList();
+            }
+            if (sql.equals("SELECT login FROM res_users")) {
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (String login : users.keySet()) {
+                    result.add(rows("login", login).get(0));
+                }
+                return result;
+            }
+            if (sql.startsWith("SELECT u.login, u.password, u.active, p.name, p.street, p.zip, p.city FROM res_users u")) {
+                // Solo se guarda el nombre del socio; la dirección se devuelve vacía
+                List<String> logins = new ArrayList<>();
+                for (String login : users.keySet()) {
+                    if (login.compareTo((String) params.get(1)) > 0) {
+                        logins.add(login);
+                    }
+                }
+                Collections.sort(logins);
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (String login : logins.subList(0, Math.min(logins.size(), (Integer) params.get(2)))) {
+                    Row row = users.get(login);
+                    if (row != null) {
+                        result.add(rows("login", row.login, "password", row.password, "active", row.active,
+                                "name", partners.get(row.partnerId), "street", null, "zip", null, "city", null).get(0));
+                    }
+                }
+                return result;
+            }
+            if (sql.startsWith("WITH deleted AS (DELETE FROM res_users")) {
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (Object login : array(params.get(1))) {
+                    Row row = users.remove(login);
+                    if (row != null) {
+                        partners.remove(row.partnerId);
+                        result.add(rows("partner_id", row.partnerId).get(0));
+                    }
+                }
+                return result;
+            }
+            if (sql.startsWith("SELECT login FROM res_users WHERE login = ANY")) {
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (Object login : array(params.get(1))) {
+                    if (users.containsKey(login)) {
+                        result.add(rows("login", login).get(0));
+                    }
+                }
+                return result;
+            }
+            if (sql.startsWith("INSERT INTO res_partner")) {
+                Object[] names = array(params.get(1));
+                Object[] emails = array(params.get(5));
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (int i = 0; i < names.length; i++) {
+                    int id = partnerIds.incrementAndGet();
+                    partners.put(id, (String) names[i]);
+                    result.add(rows("id", id, "email", emails[i]).get(0));
+                }
+                return result;
+            }
+            if (sql.startsWith("INSERT INTO res_users")) {
+                Object[] partnerIdsParam = array(params.get(1));
+                Object[] actives = array(params.get(2));
+                Object[] logins = array(params.get(3));
+                Object[] passwords = array(params.get(4));
+                synchronized (users) {
+                    for (Object login : logins) {
+                        if (users.containsKey(login)) {
+                            throw new SQLException("duplicate key value violates unique constraint", UNIQUE_VIOLATION);
+                        }
+                    }
+                    List<Map<String, Object>> result = new ArrayList<>();
+                    for (int i = 0; i < logins.length; i++) {
+                        Row row = new Row(userIds.incrementAndGet(), (Integer) partnerIdsParam[i], (String) logins[i],
+                                (String) passwords[i], (Boolean) actives[i]);
+                        users.put(row.login, row);
+                        result.add(rows("id", row.id, "login", row.login).get(0));
+                    }
+                    return result;
+                }
+            }
+            if (sql.startsWith("WITH partner AS (INSERT INTO res_partner")) {
+                synchronized (users) {
+                    String login = (String) params.get(8);
+                    if (users.containsKey(login)) {
+                        throw new SQLException("duplicate key value violates unique constraint", UNIQUE_VIOLATION);
+                    }
+                    int partnerId = partnerIds.incrementAndGet();
+                    partners.put(partnerId, (String) params.get(1));
+                    Row row = new Row(userIds.incrementAndGet(), partnerId, login, (String) params.get(9), (Boolean) params.get(7));
+                    users.put(login, row);
+                    return rows("id", row.id);
+                }
+            }
+            throw new SQLFeatureNotSupportedException("Consulta no soportada: " + sql);
+        }
+
+        /**
+         * Obtiene los elementos de un parámetro de tipo array.
+         *
+         * @param value el parámetro.
+         * @return sus elementos.
+         * @throws SQLException si no se pueden leer.
+         */
+        private static Object[] array(Object value) throws SQLException {
+            return (Object[]) ((Array) value).getArray();
+        }
+
+        /**
+         * Construye un resultado de una fila.
+         *
+         * @param columnsAndValues pares nombre de columna y valor.
+         * @return el resultado.
+         */
+        static List<Map<String, Object>> rows(Object... columnsAndValues) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < columnsAndValues.length; i += 2) {
+                row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+            }
+            return Collections.singletonList(row);
+        }
+    }
+
+    /**
+     * Fila de {@code res_users} junto al id de su socio.
+     */
+    private static class Row {
+
+        private final int id;
+        private final int partnerId;
+        private final String login;
+        private volatile String password;
+        private final boolean active;
+
+        Row(int id, int partnerId, String login, String password, Boolean active) {
+            this.id = id;
+            this.partnerId = partnerId;
+            this.login = login;
+            this.password = password;
+            this.active = active != null && active;
+        }
+    }
+
+    /**
+     * Simula una {@link Connection}.
+     */
+    private static class ConnectionHandler implements InvocationHandler {
+
+        private final Database database;
+        private final long latencyNanos;
+        private final long lagMillis;
+        private boolean closed;
+
+        ConnectionHandler(Database database, long latencyNanos, long lagMillis) {
+            this.database = database;
+            this.latencyNanos = latencyNanos;
+            this.lagMillis = lagMillis;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler(this, (String) args[0]));
+                case "createArrayOf":
+                    Object[] elements = (Object[]) args[1];
+                    return proxy(Array.class, (array, arrayMethod, arrayArgs)
+                            -> "getArray".equals(arrayMethod.getName()) ? elements : defaultValue(array, arrayMethod, arrayArgs));
+                case "isValid":
+                    pause();
+                    return !closed;
+                case "isClosed":
+                    return closed;
+                case "close":
+                    closed = true;
+                    return null;
+                case "getAutoCommit":
+                    return true;
+                case "commit":
+                case "rollback":
+                    pause();
+                    return null;
+                default:
+                    return defaultValue(proxy, method, args);
+            }
+        }
+
+        /**
+         * Simula la latencia de un viaje de ida y vuelta a la base de datos.
+         */
+        void pause() {
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+        }
+    }
+
+    /**
+     * Simula un {@link PreparedStatement}.
+     */
+    private static class StatementHandler implements InvocationHandler {
+
+        private final ConnectionHandler connection;
+        private final String sql;
+        private final Map<Integer, Object> params = new HashMap<>();
+        private boolean closed;
+
+        StatementHandler(ConnectionHandler connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                params.put((Integer) args[0], args[1]);
+                return null;
+            }
+            switch (name) {
+                case "executeQuery":
+                    connection.pause();
+                    if (sql.startsWith("SELECT CASE WHEN pg_is_in_recovery()")) {
+                        // Retraso de replicación, propio de cada conexión
+                        return resultSet(Database.rows("lag", connection.lagMillis < 0 ? null : connection.lagMillis));
+                    }
+                    return resultSet(connection.database.execute(sql, params));
+                case "executeUpdate":
+                    connection.pause();
+                    return connection.database.execute(sql, params).size();
+                case "clearParameters":
+                    params.clear();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "close":
+                    closed = true;
+                    return null;
+                default:
+                    return defaultValue(proxy, method, args);
+            }
+        }
+    }
+
+    /**
+     * Crea un {@link ResultSet} sobre filas en memoria.
+     *
+     * @param rows las filas.
+     * @return el proxy del resultado.
+     */
+    static ResultSet resultSet(List<Map<String, Object>> rows) {
+        return proxy(ResultSet.class, new ResultSetHandler(rows));
+    }
+
+    /**
+     * Simula un {@link ResultSet}.
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+
+        private final List<Map<String, Object>> rows;
+        private int index = -1;
+        private boolean closed;
+        private boolean wasNull;
+
+        ResultSetHandler(List<Map<String, Object>> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "next":
+                    return ++index < rows.size();
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getString":
+                    Object text = value(args[0]);
+                    return text == null ? null : String.valueOf(text);
+                case "getInt":
+                    Object integer = value(args[0]);
+                    return integer == null ? 0 : ((Number) integer).intValue();
+                case "getLong":
+                    Object number = value(args[0]);
+                    return number == null ? 0L : ((Number) number).longValue();
+                case "getBoolean":
+                    return Boolean.TRUE.equals(value(args[0]));
+                case "getObject":
+                    return value(args[0]);
+                case "wasNull":
+                    return wasNull;
+                default:
+                    return defaultValue(proxy, method, args);
+            }
+        }
+
+        /**
+         * Obtiene una columna de la fila actual por nombre o posición.
+         *
+         * @param column nombre o posición (desde 1) de la columna.
+         * @return el valor, que también anota para {@code wasNull}.
+         * @throws SQLException si la columna no existe.
+         */
+        private Object value(Object column) throws SQLException {
+            Map<String, Object> row = rows.get(index);
+            if (column instanceof Integer) {
+                List<Object> values = new ArrayList<>(row.values());
+                int position = (Integer) column - 1;
+                if (position >= 0 && position < values.size()) {
+                    Object value = values.get(position);
+                    wasNull = value == null;
+                    return value;
+                }
+            } else if (row.containsKey(column)) {
+                Object value = row.get(column);
+                wasNull = value == null;
+                return value;
+            }
+            throw new SQLException("Columna desconocida: " + column + " en " + Arrays.toString(row.keySet().toArray()));
+        }
+    }
+}
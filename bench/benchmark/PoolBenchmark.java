@@ -0,0 +1,43 @@
+package benchmark;
+
+import dbserver.PostgresConnectionPool;
+import java.sql.Connection;
+
+/**
+ * Mide {@link PostgresConnectionPool#getConnection()} seguido de
+ * {@link PostgresConnectionPool#releaseConnection(Connection)} con distintos
+ * niveles de contención: menos, igual y más hilos que conexiones.
+ *
+ * @author Sergio
+ */
+public class PoolBenchmark implements Benchmark {
+
+    /**
+     * Tamaño del pool medido.
+     */
+    private static final int POOL_SIZE = 8;
+
+    @Override
+    public String name() {
+        return "pool";
+    }
+
+    @Override
+    public void run(Harness harness) throws Exception {
+        PostgresConnectionPool pool = new PostgresConnectionPool(POOL_SIZE, POOL_SIZE);
+        try {
+            for (int threads : new int[]{1, POOL_SIZE, POOL_SIZE * 4}) {
+                harness.measure("pool.getConnection+release", threads, () -> {
+                    Connection connection = pool.getConnection();
+                    if (connection == null) {
+                        throw new IllegalStateException("El pool no ha entregado conexión");
+                    }
+                    Harness.sink += connection.hashCode();
+                    pool.releaseConnection(connection);
+                });
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}
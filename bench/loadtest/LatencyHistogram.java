@@ -0,0 +1,121 @@
+package loadtest;
+
+/**
+ * Histograma de latencias de precisión relativa constante, al estilo de
+ * HdrHistogram: los valores menores de 128 se guardan exactos y los mayores en
+ * cubos de 64 subdivisiones por potencia de dos, con un error relativo menor
+ * del 1,6 % en cualquier magnitud y memoria fija.
+ *
+ * <p>
+ * No es seguro para hilos: cada cliente usa el suyo y al final se combinan con
+ * {@link #add(LatencyHistogram)}.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class LatencyHistogram {
+
+    /**
+     * Subdivisiones por potencia de dos.
+     */
+    private static final int SUB_BUCKETS = 64;
+
+    /**
+     * Número de cubos necesario para cualquier {@code long} positivo.
+     */
+    private static final int BUCKETS = SUB_BUCKETS * 58;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+
+    /**
+     * Registra un valor.
+     *
+     * @param value el valor, normalmente en microsegundos.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts[index(v)]++;
+        total++;
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Suma a este histograma los valores de otro.
+     *
+     * @param other el otro histograma.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return número de valores registrados.
+     */
+    public long count() {
+        return total;
+    }
+
+    /**
+     * @return el mayor valor registrado.
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Devuelve el valor por debajo del cual queda el percentil indicado.
+     *
+     * @param percentile percentil entre 0 y 100.
+     * @return el límite superior del cubo que contiene el percentil, o
+     * {@code 0} si no hay valores.
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Calcula el cubo de un valor.
+     *
+     * @param value el valor, no negativo.
+     * @return el índice del cubo.
+     */
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS * shift + (int) (value >> shift);
+    }
+
+    /**
+     * Calcula el mayor valor que cae en un cubo.
+     *
+     * @param index el índice del cubo.
+     * @return el límite superior del cubo.
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index - (long) SUB_BUCKETS * shift;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,476 @@
+package loadtest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import server.BinaryCodec;
+import server.MainServer;
+import server.WorkerExecutorFactory;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Generador de carga de lazo cerrado para el protocolo de {@code MainServer}.
+ *
+ * <p>
+ * Abre {@code --clients} clientes concurrentes (hilos virtuales si la
+ * plataforma los tiene) que envían una mezcla de {@code SIGN_IN_REQUEST} y
+ * {@code SIGN_UP_REQUEST}. Cada cliente espera su respuesta antes de enviar la
+ * siguiente petición y, si se fija {@code --rate}, espacia las peticiones para
+ * que el total se acerque a esa tasa. La latencia se mide desde el instante en
+ * que la petición debía salir, de modo que los retrasos del servidor no se
+ * ocultan al frenar a los clientes (omisión coordinada).
+ * </p>
+ *
+ * <p>
+ * Opciones, con sus valores por defecto:
+ * </p>
+ * <ul>
+ * <li>{@code --host=localhost --port=1234}</li>
+ * <li>{@code --clients=100}: clientes concurrentes.</li>
+ * <li>{@code --rate=0}: peticiones por segundo en total; {@code 0} sin
+ * límite.</li>
+ * <li>{@code --duration=30 --warmup=5}: segundos de medida y de
+ * calentamiento.</li>
+ * <li>{@code --signUpRatio=0.1}: fracción de peticiones de registro.</li>
+ * <li>{@code --users=1000}: usuarios precargados {@code user-N} usados para
+ * iniciar sesión.</li>
+ * <li>{@code --protocol=object}: {@code object} (serialización de Java),
+ * {@code binary} ({@code BinaryCodec}) o {@code nio} (tramas con longitud para
+ * {@code server.frontEnd=nio}).</li>
+ * <li>{@code --persistent}: con {@code object}, reutiliza el socket (requiere
+ * {@code server.keepAlive=true}); {@code binary} y {@code nio} siempre lo
+ * reutilizan.</li>
+ * <li>{@code --embedded}: arranca en el mismo proceso un servidor contra la
+ * base de datos en memoria ({@link StandInServer}).</li>
+ * </ul>
+ *
+ * <p>
+ * Al terminar informa del rendimiento, de los percentiles 50, 90, 99 y 99,9 de
+ * latencia y del número de respuestas por {@link MessageType}, además de los
+ * errores de E/S.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class LoadGenerator {
+
+    private final String host;
+    private final int port;
+    private final int clients;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double signUpRatio;
+    private final int users;
+    private final String protocol;
+    private final boolean persistent;
+
+    /**
+     * Secuencia para generar logins de registro únicos.
+     */
+    private final AtomicLong signUps = new AtomicLong();
+
+    /**
+     * Prefijo único de esta ejecución para los logins de registro.
+     */
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Crea el generador a partir de las opciones.
+     *
+     * @param options opciones de la línea de órdenes.
+     */
+    LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "1234"));
+        clients = Integer.parseInt(options.getOrDefault("clients", "100"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        signUpRatio = Double.parseDouble(options.getOrDefault("signUpRatio", "0.1"));
+        users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        protocol = options.getOrDefault("protocol", "object");
+        persistent = options.containsKey("persistent") || !"object".equals(protocol);
+    }
+
+    /**
+     * Punto de entrada del generador.
+     *
+     * @param args opciones {@code --clave=valor}.
+     * @throws Exception si la prueba no puede ejecutarse.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String option = arg.startsWith("--") ? arg.substring(2) : arg;
+            int equals = option.indexOf('=');
+            options.put(equals < 0 ? option : option.substring(0, equals), equals < 0 ? "" : option.substring(equals + 1));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        if (options.containsKey("embedded")) {
+            generator.startEmbeddedServer();
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    /**
+     * Arranca un servidor con base de datos en memoria en un hilo aparte y
+     * espera a que acepte conexiones.
+     *
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    private void startEmbeddedServer() throws InterruptedException {
+        if ("nio".equals(protocol)) {
+            System.setProperty("server.frontEnd", "nio");
+        } else if (persistent) {
+            System.setProperty("server.keepAlive", "true");
+        }
+        // Todos los clientes simulados comparten dirección IP
+        if (System.getProperty("server.rateLimit") == null) {
+            System.setProperty("server.rateLimit", "false");
+        }
+        StandInServer.prepare(users, Long.getLong("load.latencyMicros", 0L));
+        Thread server = new Thread(() -> new MainServer(port).init(), "embedded-server");
+        server.setDaemon(true);
+        server.start();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException event) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+        throw new IllegalStateException("El servidor embebido no ha arrancado");
+    }
+
+    /**
+     * Ejecuta la prueba y muestra el informe.
+     *
+     * @throws Exception si falla algún cliente.
+     */
+    void run() throws Exception {
+        ExecutorService executor = WorkerExecutorFactory.newVirtualThreadExecutor();
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(clients);
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        // Intervalo entre peticiones de cada cliente para alcanzar la tasa total
+        long interval = rate > 0 ? (long) (1e9 * clients / rate) : 0;
+
+        List<Future<ClientResult>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            long offset = interval > 0 ? interval * i / clients : 0;
+            futures.add(executor.submit(() -> runClient(start + offset, interval, measureFrom, end)));
+        }
+        ClientResult total = new ClientResult();
+        for (Future<ClientResult> future : futures) {
+            total.add(future.get());
+        }
+        executor.shutdown();
+        report(total);
+    }
+
+    /**
+     * Bucle de un cliente.
+     *
+     * @param firstSend instante previsto de la primera petición.
+     * @param interval intervalo entre peticiones en nanosegundos, o {@code 0}.
+     * @param measureFrom instante en que termina el calentamiento.
+     * @param end instante en que termina la prueba.
+     * @return los resultados del cliente.
+     */
+    private ClientResult runClient(long firstSend, long interval, long measureFrom, long end) {
+        ClientResult result = new ClientResult();
+        Connection connection = null;
+        long intended = firstSend;
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0 && now < intended) {
+                LockSupport.parkNanos(intended - now);
+                now = System.nanoTime();
+            }
+            if (now >= end) {
+                break;
+            }
+            long sendAt = interval > 0 ? intended : now;
+            Message request = nextRequest();
+            MessageType responseType = null;
+            try {
+                if (connection == null) {
+                    connection = open();
+                }
+                responseType = connection.call(request).getType();
+                if (!persistent) {
+                    connection.close();
+                    connection = null;
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException event) {
+                closeQuietly(connection);
+                connection = null;
+            }
+            long done = System.nanoTime();
+            if (sendAt >= measureFrom) {
+                result.record(request.getType(), responseType, TimeUnit.NANOSECONDS.toMicros(done - sendAt));
+            }
+            intended += interval;
+        }
+        closeQuietly(connection);
+        return result;
+    }
+
+    /**
+     * Genera la siguiente petición según la mezcla configurada.
+     *
+     * @return el mensaje a enviar.
+     */
+    private Message nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        User user = new User();
+        if (random.nextDouble() < signUpRatio) {
+            long n = signUps.incrementAndGet();
+            user.setLogin("load-" + runId + "-" + n + "@example.com");
+            user.setPass(StandInServer.PASSWORD);
+            user.setName("Carga " + n);
+            user.setStreet("Calle Mayor 1");
+            user.setZip("48001");
+            user.setCity("Bilbao");
+            user.setActive(true);
+            return new Message(MessageType.SIGN_UP_REQUEST, user);
+        }
+        user.setLogin("user-" + random.nextInt(users));
+        user.setPass(StandInServer.PASSWORD);
+        return new Message(MessageType.SIGN_IN_REQUEST, user);
+    }
+
+    /**
+     * Abre una conexión con el protocolo configurado.
+     *
+     * @return la conexión.
+     * @throws IOException si no se puede conectar.
+     */
+    private Connection open() throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        switch (protocol) {
+            case "binary":
+                return new BinaryConnection(socket);
+            case "nio":
+                return new NioConnection(socket);
+            default:
+                return new ObjectConnection(socket);
+        }
+    }
+
+    /**
+     * Muestra el informe final.
+     *
+     * @param total resultados combinados de todos los clientes.
+     */
+    private void report(ClientResult total) {
+        double seconds = durationNanos / 1e9;
+        LatencyHistogram latency = total.latency;
+        System.out.printf(Locale.ROOT, "protocolo=%s clientes=%d tasa objetivo=%s duracion=%.0fs%n",
+                protocol + (persistent ? " persistente" : ""), clients, rate > 0 ? String.valueOf(rate) : "sin limite", seconds);
+        System.out.printf(Locale.ROOT, "peticiones=%d rendimiento=%.1f pet/s%n", latency.count(), latency.count() / seconds);
+        System.out.printf(Locale.ROOT, "latencia (us): p50=%d p90=%d p99=%d p999=%d max=%d%n",
+                latency.percentile(50), latency.percentile(90), latency.percentile(99),
+                latency.percentile(99.9), latency.max());
+        System.out.println("peticiones por tipo:");
+        for (Map.Entry<MessageType, Long> entry : total.requests.entrySet()) {
+            System.out.printf(Locale.ROOT, "  %-20s %d%n", entry.getKey(), entry.getValue());
+        }
+        System.out.println("respuestas por tipo:");
+        for (Map.Entry<MessageType, Long> entry : total.responses.entrySet()) {
+            System.out.printf(Locale.ROOT, "  %-20s %d%n", entry.getKey(), entry.getValue());
+        }
+        System.out.printf(Locale.ROOT, "  %-20s %d%n", "ERROR_E/S", total.ioErrors);
+    }
+
+    /**
+     * Cierra una conexión ignorando los errores.
+     *
+     * @param connection la conexión, o {@code null}.
+     */
+    private static void closeQuietly(Closeable connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException event) {
+                // La conexión ya no se usa
+            }
+        }
+    }
+
+    /**
+     * Resultados de un cliente.
+     */
+    private static class ClientResult {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Map<MessageType, Long> requests = new EnumMap<>(MessageType.class);
+        private final Map<MessageType, Long> responses = new EnumMap<>(MessageType.class);
+        private long ioErrors;
+
+        /**
+         * Registra una petición medida.
+         *
+         * @param requestType tipo de la petición.
+         * @param responseType tipo de la respuesta, o {@code null} si hubo un
+         * error de E/S.
+         * @param micros latencia en microsegundos.
+         */
+        void record(MessageType requestType, MessageType responseType, long micros) {
+            latency.record(micros);
+            requests.merge(requestType, 1L, Long::sum);
+            if (responseType == null) {
+                ioErrors++;
+            } else {
+                responses.merge(responseType, 1L, Long::sum);
+            }
+        }
+
+        /**
+         * Suma los resultados de otro cliente.
+         *
+         * @param other los otros resultados.
+         */
+        void add(ClientResult other) {
+            latency.add(other.latency);
+            other.requests.forEach((type, count) -> requests.merge(type, count, Long::sum));
+            other.responses.forEach((type, count) -> responses.merge(type, count, Long::sum));
+            ioErrors += other.ioErrors;
+        }
+    }
+
+    /**
+     * Conexión de cliente con un protocolo concreto.
+     */
+    private abstract static class Connection implements Closeable {
+
+        protected final Socket socket;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Envía una petición y espera la respuesta.
+         *
+         * @param request la petición.
+         * @return la respuesta.
+         * @throws IOException si falla la comunicación.
+         * @throws ClassNotFoundException si la respuesta es de una clase
+         * desconocida.
+         */
+        abstract Message call(Message request) throws IOException, ClassNotFoundException;
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Serialización de Java sobre el socket, como los clientes existentes.
+     */
+    private static class ObjectConnection extends Connection {
+
+        private final ObjectOutputStream output;
+        private ObjectInputStream input;
+
+        ObjectConnection(Socket socket) throws IOException {
+            super(socket);
+            output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        Message call(Message request) throws IOException, ClassNotFoundException {
+            output.writeObject(request);
+            output.flush();
+            output.reset();
+            if (input == null) {
+                input = new ObjectInputStream(socket.getInputStream());
+            }
+            return (Message) input.readObject();
+        }
+    }
+
+    /**
+     * Formato binario de {@link BinaryCodec} sobre el socket.
+     */
+    private static class BinaryConnection extends Connection {
+
+        private final DataOutputStream output;
+        private final DataInputStream input;
+
+        BinaryConnection(Socket socket) throws IOException {
+            super(socket);
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            input = new DataInputStream(socket.getInputStream());
+            output.writeInt(BinaryCodec.MAGIC);
+        }
+
+        @Override
+        Message call(Message request) throws IOException {
+            BinaryCodec.writeFrame(output, request);
+            return BinaryCodec.readFrame(input);
+        }
+    }
+
+    /**
+     * Tramas con longitud y mensaje serializado, para {@code NioServer}.
+     */
+    private static class NioConnection extends Connection {
+
+        private final DataOutputStream output;
+        private final DataInputStream input;
+
+        NioConnection(Socket socket) throws IOException {
+            super(socket);
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            input = new DataInputStream(socket.getInputStream());
+        }
+
+        @Override
+        Message call(Message request) throws IOException, ClassNotFoundException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            try (ObjectOutputStream object = new ObjectOutputStream(bytes)) {
+                object.writeObject(request);
+            }
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+            output.flush();
+            byte[] frame = new byte[input.readInt()];
+            input.readFully(frame);
+            try (ObjectInputStream object = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+                return (Message) object.readObject();
+            }
+        }
+    }
+}
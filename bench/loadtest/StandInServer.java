@@ -0,0 +1,79 @@
+package loadtest;
+
+import benchmark.InMemoryDriver;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import server.MainServer;
+
+/**
+ * Arranca {@link MainServer} contra la base de datos en memoria de
+ * {@link InMemoryDriver}, con usuarios precargados, para pruebas de carga sin
+ * PostgreSQL.
+ *
+ * <pre>
+ * java -cp build/classes:build/bench:Libreria.jar -Dload.users=1000 \
+ *     -Dload.latencyMicros=500 loadtest.StandInServer 1234
+ * </pre>
+ *
+ * <p>
+ * Los usuarios precargados son {@code user-0} ... {@code user-N} con
+ * contraseña {@code secret}, los mismos que usa {@link LoadGenerator}. El resto
+ * de la configuración del servidor se puede sustituir con propiedades del
+ * sistema ({@code -Dserver.frontEnd=nio}, {@code -Dserver.keepAlive=true},
+ * etc.).
+ * </p>
+ *
+ * @author Sergio
+ */
+public class StandInServer {
+
+    /**
+     * Contraseña de los usuarios precargados.
+     */
+    public static final String PASSWORD = "secret";
+
+    /**
+     * Arranca el servidor en el hilo actual.
+     *
+     * @param args puerto opcional (1234 por defecto).
+     */
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 1234;
+        prepare(Integer.getInteger("load.users", 1000), Long.getLong("load.latencyMicros", 0L));
+        new MainServer(port).init();
+    }
+
+    /**
+     * Configura el servidor para usar la base de datos en memoria y la
+     * rellena con usuarios.
+     *
+     * @param users número de usuarios a precargar.
+     * @param latencyMicros latencia simulada por consulta, en microsegundos.
+     */
+    public static void prepare(int users, long latencyMicros) {
+        InMemoryDriver.register();
+        String url = "jdbc:inmemory:load" + (latencyMicros > 0 ? "?latencyMicros=" + latencyMicros : "");
+        setDefault("db.url", url);
+        setDefault("db.user", "load");
+        setDefault("db.password", "load");
+        // Los mensajes INFO por petición dominarían la prueba
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        InMemoryDriver.Database database = InMemoryDriver.database(System.getProperty("db.url"));
+        for (int i = 0; i < users; i++) {
+            database.addUser("user-" + i, PASSWORD, "Usuario " + i, true);
+        }
+    }
+
+    /**
+     * Asigna una propiedad del sistema si no se ha indicado otra.
+     *
+     * @param key la propiedad.
+     * @param value el valor por defecto.
+     */
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
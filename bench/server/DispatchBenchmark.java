@@ -0,0 +1,41 @@
+package server;
+
+import benchmark.Benchmark;
+import benchmark.Harness;
+import benchmark.InMemoryDriver;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Mide {@link Worker#dispatch(Message)}, el reparto de mensajes que hace
+ * {@code Worker.processMessage}, incluido el acceso a la fábrica y al
+ * {@code Dao}. Está en el paquete {@code server} porque el método es privado
+ * del paquete.
+ *
+ * @author Sergio
+ */
+public class DispatchBenchmark implements Benchmark {
+
+    @Override
+    public String name() {
+        return "dispatch";
+    }
+
+    @Override
+    public void run(Harness harness) throws Exception {
+        InMemoryDriver.database(System.getProperty("db.url")).addUser("dispatch", "secret", "Dispatch", true);
+        User user = new User();
+        user.setLogin("dispatch");
+        user.setPass("secret");
+        Message signIn = new Message(MessageType.SIGN_IN_REQUEST, user);
+        Message invalid = new Message(MessageType.SIGN_IN_REQUEST, null);
+
+        for (int threads : new int[]{1, 8}) {
+            harness.measure("worker.dispatch signIn", threads,
+                    () -> Harness.sink += Worker.dispatch(signIn).getType().ordinal());
+            harness.measure("worker.dispatch sin usuario", threads,
+                    () -> Harness.sink += Worker.dispatch(invalid).getType().ordinal());
+        }
+    }
+}
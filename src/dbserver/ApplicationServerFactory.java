@@ -1,7 +1,11 @@
 package dbserver;
 
-import java.util.MissingResourceException;
-import java.util.ResourceBundle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import utilidades.Closeable;
@@ -12,19 +16,42 @@ import utilidades.Signable;
  * gestionar la conexión a la base de datos y la creación de DAOs.
  *
  * <p>
+ * La instancia se guarda en un campo {@code volatile} y solo se bloquea
+ * mientras no existe, de modo que {@link #getInstance()} no usa bloqueos en
+ * cada petición. Si el constructor falla, por ejemplo con la base de datos
+ * caída, la excepción llega al llamante y la siguiente llamada lo vuelve a
+ * intentar. {@code MainServer} la crea al arrancar, antes de aceptar clientes,
+ * y llama a {@link #prestart()} para abrir los pools y preparar las
+ * sentencias.
+ * </p>
+ *
+ * <p>
  * Esta clase proporciona acceso a una instancia única de {@code Dao} y maneja
  * el pool de conexiones a la base de datos PostgreSQL.
  * </p>
  *
  * <p>
- * Utiliza un archivo de propiedades para definir el tamaño del pool de
- * conexiones. Si el valor no es válido o no está presente, el tamaño
- * predeterminado se establece en {@code 0}.
+ * Utiliza un archivo de propiedades para definir el tamaño mínimo
+ * ({@code db.poolMinSize}) y máximo ({@code db.poolMaxSize}) del pool de
+ * conexiones. Si alguno no está presente, se usa {@code db.poolSize}; si
+ * tampoco existe o no es válido, el tamaño predeterminado es {@code 0}.
+ * </p>
+ *
+ * <p>
+ * Si {@code db.replicas} contiene una lista de URL separadas por comas, crea
+ * además un pool por réplica y un {@link ReplicaRouter} que reparte entre
+ * ellas las lecturas de los inicios de sesión. Los registros siguen yendo al
+ * pool de la base de datos principal.
  * </p>
  *
  * <p>
- * En caso de error al obtener el tamaño del pool, se utiliza el valor
- * predeterminado configurado en el atributo {@code poolSize}.
+ * Si {@code db.shards} contiene una lista de URL separadas por comas, los
+ * usuarios se reparten entre esas bases de datos con un
+ * {@link ShardedSignable} y {@code db.url} y las réplicas no se usan. Cada
+ * shard se llama {@code shard-N} por su posición en la lista, de modo que los
+ * shards nuevos se añaden al final. Mientras {@link ShardRebalancer} mueve los
+ * usuarios a los shards añadidos, {@code db.shardMigrateFrom} indica cuántos
+ * shards había antes.
  * </p>
  *
  * @author Sergio
@@ -42,68 +69,234 @@ public class ApplicationServerFactory {
     private Dao dao;
 
     /**
-     * Tamaño del pool de conexiones, obtenido del archivo de configuración. Si
-     * no se encuentra el valor o es inválido, se establece un valor por
-     * defecto.
+     * Tamaños mínimo y máximo del pool de conexiones, obtenidos del archivo de
+     * configuración. Si no se encuentra el valor o es inválido, se establece
+     * un valor por defecto.
      */
-    private Integer poolSize;
+    private int poolMinSize;
+    private int poolMaxSize;
 
     /**
-     * Instancia única de {@code ApplicationServerFactory} (patrón Singleton).
+     * Pool de conexiones a la base de datos PostgreSQL.
      */
-    private static ApplicationServerFactory instance;
+    private PostgresConnectionPool connectionPool;
 
     /**
-     * Pool de conexiones a la base de datos PostgreSQL.
+     * Réplicas para las lecturas, o {@code null} si no hay ninguna.
      */
-    private PostgresConnectionPool connectionPool;
+    private ReplicaRouter replicaRouter;
 
     /**
-     * Constructor que inicializa el pool de conexiones con un tamaño definido
-     * en el archivo de configuración.
+     * Reparto de usuarios entre shards y sus pools, o {@code null} y vacío si
+     * no hay shards.
+     */
+    private ShardedSignable sharded;
+    private final List<PostgresConnectionPool> shardPools = new ArrayList<>();
+
+    /**
+     * Constructor que inicializa el pool de conexiones con los tamaños
+     * definidos en el archivo de configuración.
      *
      * <p>
-     * Intenta obtener el tamaño del pool de conexiones desde un archivo de
-     * propiedades. En caso de que falte el valor o esté mal formateado,
+     * Intenta obtener los tamaños del pool de conexiones desde un archivo de
+     * propiedades. En caso de que falten los valores o estén mal formateados,
      * registra el error y asigna un tamaño predeterminado de {@code 0}.
      * </p>
      */
     public ApplicationServerFactory() {
-        try {
-            ResourceBundle resourceBundle = ResourceBundle.getBundle("dbserver.dbConnection");
-            // Inicializa el pool de conexiones utilizando el tamaño especificado en el bundle
-            poolSize = Integer.parseInt(resourceBundle.getString("db.poolSize"));
-
-        } catch (MissingResourceException event) {
-            LOGGER.log(Level.SEVERE, "El poolSize no se encuentra en el archivo: {0}", event.getMessage());
-            connectionPool = new PostgresConnectionPool(0);
-        } catch (NumberFormatException event) {
-            LOGGER.log(Level.SEVERE, "El tamaño de pool es inválido o está mal formateado: {0}", event.getMessage());
-            // Asigna un tamaño predeterminado si el valor no es numérico
-            connectionPool = new PostgresConnectionPool(0);
+        // Compatibilidad con la configuración anterior de tamaño fijo
+        int poolSize = ServerConfig.getInt("db.poolSize", 0);
+        poolMinSize = ServerConfig.getInt("db.poolMinSize", poolSize);
+        poolMaxSize = ServerConfig.getInt("db.poolMaxSize", poolSize);
+        if (poolMaxSize <= 0) {
+            LOGGER.severe("El tamaño máximo del pool no se encuentra o es inválido.");
+        }
+        List<String> shardUrls = shardUrls();
+        if (shardUrls.isEmpty()) {
+            connectionPool = new PostgresConnectionPool(poolMinSize, poolMaxSize);
+            replicaRouter = createReplicaRouter();
+            dao = new Dao(connectionPool, replicaRouter);
+            loadLoginFilter(dao);
+        } else {
+            sharded = createShards(shardUrls);
+        }
+    }
+
+    /**
+     * Carga el filtro de logins de un DAO y programa su recarga, si el filtro
+     * está activado.
+     *
+     * @param loaded El DAO.
+     */
+    private static void loadLoginFilter(Dao loaded) {
+        if (ServerConfig.getBoolean("db.loginFilter", true)) {
+            loaded.loadLogins();
+            loaded.scheduleLoginReload(ServerConfig.getLong("db.loginFilterRefresh", 300000));
+        }
+    }
+
+    /**
+     * Devuelve las URL de los shards de {@code db.shards}.
+     *
+     * @return Las URL, en orden, o una lista vacía si no hay shards.
+     */
+    static List<String> shardUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String url : ServerConfig.getString("db.shards", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Devuelve el nombre de un shard, que fija su posición en el anillo.
+     *
+     * @param index Posición del shard en {@code db.shards}.
+     * @return El nombre.
+     */
+    static String shardName(int index) {
+        return "shard-" + index;
+    }
+
+    /**
+     * Crea un pool y un DAO por shard, con el usuario, la contraseña y los
+     * tamaños de la base de datos principal, y un único calculador de hashes
+     * para todos.
+     *
+     * <p>
+     * Durante una migración, los shards nuevos aún no tienen todos sus
+     * usuarios, así que no usan el filtro de logins ni la caché de inicios de
+     * sesión fallidos: un login que acaba de llegar no debe rechazarse.
+     * </p>
+     *
+     * @param urls Las URL de los shards.
+     * @return El repartidor entre shards.
+     */
+    private ShardedSignable createShards(List<String> urls) {
+        if (!ServerConfig.getString("db.replicas", "").isEmpty()) {
+            LOGGER.warning("Con shards no se usan las réplicas de db.replicas.");
         }
-        connectionPool = new PostgresConnectionPool(poolSize);
-        dao = new Dao(connectionPool);
+        String user = ServerConfig.getString("db.user", null);
+        String password = ServerConfig.getString("db.password", null);
+        int migrateFrom = ServerConfig.getInt("db.shardMigrateFrom", 0);
+        int virtualNodes = ServerConfig.getInt("db.shardVirtualNodes", 128);
+        PasswordHasher passwordHasher = new PasswordHasher();
+
+        List<String> names = new ArrayList<>(urls.size());
+        Map<String, Dao> daos = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String name = shardName(i);
+            PostgresConnectionPool pool = new PostgresConnectionPool(name, poolMinSize, poolMaxSize, urls.get(i), user, password);
+            shardPools.add(pool);
+            boolean receiving = migrateFrom > 0 && i >= migrateFrom;
+            SignInCache failedSignIns = receiving ? new SignInCache(0, 0)
+                    : new SignInCache(ServerConfig.getInt("db.negativeCacheSize", 10000), ServerConfig.getLong("db.negativeCacheTtl", 5000));
+            Dao shardDao = new Dao(pool, null, new SignInCache(), failedSignIns, new LoginFilter(), passwordHasher);
+            if (!receiving) {
+                loadLoginFilter(shardDao);
+            }
+            names.add(name);
+            daos.put(name, shardDao);
+        }
+
+        ShardRing previous = null;
+        if (migrateFrom > 0 && migrateFrom < names.size()) {
+            previous = new ShardRing(names.subList(0, migrateFrom), virtualNodes);
+            LOGGER.log(Level.INFO, "Usuarios repartidos entre {0} shards, migrando desde {1}.",
+                    new Object[]{names.size(), migrateFrom});
+        } else {
+            LOGGER.log(Level.INFO, "Usuarios repartidos entre {0} shards.", names.size());
+        }
+        return new ShardedSignable(daos, new ShardRing(names, virtualNodes), previous);
+    }
+
+    /**
+     * Crea los pools de las réplicas de {@code db.replicas}. Usan el usuario y
+     * la contraseña de {@code db.replicaUser} y {@code db.replicaPassword} y
+     * los tamaños de {@code db.replicaPoolMinSize} y
+     * {@code db.replicaPoolMaxSize}; los que falten se toman de la principal.
+     *
+     * @return El repartidor de lecturas, o {@code null} si no hay réplicas.
+     */
+    private ReplicaRouter createReplicaRouter() {
+        String urls = ServerConfig.getString("db.replicas", "");
+        List<PostgresConnectionPool> pools = new ArrayList<>();
+        String user = ServerConfig.getString("db.replicaUser", ServerConfig.getString("db.user", null));
+        String password = ServerConfig.getString("db.replicaPassword", ServerConfig.getString("db.password", null));
+        int minSize = ServerConfig.getInt("db.replicaPoolMinSize", poolMinSize);
+        int maxSize = ServerConfig.getInt("db.replicaPoolMaxSize", poolMaxSize);
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                pools.add(new PostgresConnectionPool("replica-" + pools.size(), minSize, maxSize, url.trim(), user, password));
+            }
+        }
+        if (pools.isEmpty()) {
+            return null;
+        }
+        LOGGER.log(Level.INFO, "Inicios de sesión repartidos entre {0} réplicas.", pools.size());
+        return new ReplicaRouter(pools, ServerConfig.getLong("db.replicaMaxLag", 1000),
+                ServerConfig.getLong("db.replicaLagCheck", 1000));
     }
 
+    /**
+     * Instancia única de la clase (patrón Singleton).
+     */
+    private static volatile ApplicationServerFactory instance;
+
     /**
      * Método para obtener la única instancia de
      * {@code ApplicationServerFactory}.
      *
      * <p>
      * Este método asegura que solo haya una instancia de la clase (Singleton) y
-     * la devuelve. Si la instancia no existe, se crea una nueva.
+     * la devuelve. La primera llamada la crea; las siguientes no usan
+     * bloqueos. Si la creación falla no se guarda nada y la siguiente llamada
+     * lo vuelve a intentar.
      * </p>
      *
      * @return La instancia única de {@code ApplicationServerFactory}.
      */
-    public static synchronized ApplicationServerFactory getInstance() {
-        // Si la instancia aún no existe, la crea
-        if (instance == null) {
-            instance = new ApplicationServerFactory();
+    public static ApplicationServerFactory getInstance() {
+        ApplicationServerFactory current = instance;
+        if (current == null) {
+            synchronized (ApplicationServerFactory.class) {
+                current = instance;
+                if (current == null) {
+                    current = new ApplicationServerFactory();
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Abre y valida las conexiones mínimas de los pools y prepara en ellas
+     * las sentencias del DAO.
+     */
+    public void prestart() {
+        int opened = 0;
+        int prepared = 0;
+        if (sharded != null) {
+            for (PostgresConnectionPool pool : shardPools) {
+                opened += pool.prestart();
+            }
+            for (Dao shardDao : sharded.getShards().values()) {
+                prepared += shardDao.prepareStatements();
+            }
+        } else {
+            opened = connectionPool.prestart();
+            if (replicaRouter != null) {
+                for (ReplicaRouter.Replica replica : replicaRouter.getReplicas()) {
+                    opened += replica.getPool().prestart();
+                }
+            }
+            prepared = dao.prepareStatements();
         }
-        // Devuelve la instancia existente
-        return instance;
+        LOGGER.log(Level.INFO, "Pools abiertos con {0} conexiones; sentencias preparadas en {1}.",
+                new Object[]{opened, prepared});
     }
 
     /**
@@ -114,16 +307,71 @@ public class ApplicationServerFactory {
      * el acceso a la base de datos.
      */
     public Signable access() {
-        return dao;
+        return sharded != null ? sharded : dao;
+    }
+
+    /**
+     * Proporciona acceso asíncrono al objeto {@code Dao}, para encadenar la
+     * respuesta sin bloquear el hilo que atiende la petición.
+     *
+     * @return Objeto que implementa la interfaz {@code AsyncSignable}.
+     */
+    public AsyncSignable accessAsync() {
+        return sharded != null ? sharded : dao;
+    }
+
+    /**
+     * Devuelve los DAO de la base de datos: el de la principal o el de cada
+     * shard.
+     *
+     * @return Los DAO.
+     */
+    public Collection<Dao> getDaos() {
+        return sharded != null ? sharded.getShards().values() : Collections.singletonList(dao);
+    }
+
+    /**
+     * Devuelve el repartidor de lecturas entre réplicas.
+     *
+     * @return El repartidor, o {@code null} si no hay réplicas.
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * Devuelve el repartidor de usuarios entre shards.
+     *
+     * @return El repartidor, o {@code null} si no hay shards.
+     */
+    public ShardedSignable getShards() {
+        return sharded;
     }
 
     /**
-     * Cierra el pool de conexiones a la base de datos.
+     * Detiene los DAO y cierra el pool de conexiones a la base de datos y los
+     * de las réplicas o los shards.
      *
      * @return Objeto que implementa la interfaz {@code Closeable} para
-     * gestionar el cierre del pool.
+     * gestionar el cierre de los pools.
      */
     public Closeable close() {
-        return connectionPool;
+        if (sharded != null) {
+            return () -> {
+                for (Dao shard : sharded.getShards().values()) {
+                    shard.close();
+                }
+                for (PostgresConnectionPool pool : shardPools) {
+                    pool.close();
+                }
+            };
+        }
+        return () -> {
+            dao.close();
+            if (replicaRouter != null) {
+                replicaRouter.close();
+            }
+            connectionPool.close();
+        };
     }
 }
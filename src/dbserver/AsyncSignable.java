@@ -0,0 +1,37 @@
+package dbserver;
+
+import java.util.concurrent.CompletableFuture;
+import utilidades.Message;
+import utilidades.User;
+
+/**
+ * Versión asíncrona de {@link utilidades.Signable}.
+ *
+ * <p>
+ * Los métodos devuelven enseguida un {@link CompletableFuture} que se completa
+ * con el mismo {@link Message} que devolvería la operación síncrona, de modo
+ * que quien llama puede encadenar el envío de la respuesta sin bloquear su
+ * hilo mientras se consulta la base de datos o se verifica la contraseña. Los
+ * errores se entregan como mensajes de error y no como futuros fallidos.
+ * </p>
+ *
+ * @author Urko
+ */
+public interface AsyncSignable {
+
+    /**
+     * Registra un nuevo usuario.
+     *
+     * @param user el usuario a registrar.
+     * @return futuro con el resultado de la operación.
+     */
+    CompletableFuture<Message> signUpAsync(User user);
+
+    /**
+     * Valida el inicio de sesión de un usuario.
+     *
+     * @param user el usuario con su login y contraseña.
+     * @return futuro con el resultado de la operación.
+     */
+    CompletableFuture<Message> signInAsync(User user);
+}
@@ -4,8 +4,29 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import utilidades.Message;
 import utilidades.MessageType;
 import utilidades.Signable;
@@ -17,11 +38,50 @@ import utilidades.User;
  * proporcionar métodos de registro e inicio de sesión.
  *
  * Esta clase utiliza un pool de conexiones a PostgreSQL para manejar las
- * conexiones de manera eficiente y segura.
+ * conexiones de manera eficiente y segura. Las sentencias preparadas se
+ * obtienen de la caché de cada conexión del pool y no se cierran tras usarse,
+ * para que se reutilicen entre peticiones.
+ *
+ * Los inicios de sesión correctos se guardan en una {@link SignInCache}, de
+ * modo que los repetidos no necesitan una conexión. El registro invalida la
+ * entrada del login afectado.
+ *
+ * Para no gastar una conexión en peticiones que van a fallar, los inicios de
+ * sesión que repiten una contraseña errónea reciente se rechazan sin consultar
+ * la base de datos. Un login que no está en el {@link LoginFilter} puede ser de
+ * un usuario creado por otro servidor o por Odoo después de cargar el filtro,
+ * así que se busca una vez en la base de datos: si no existe, la caché negativa
+ * rechaza sus siguientes intentos, con cualquier contraseña, durante
+ * {@code db.negativeCacheTtl}; si existe, se añade al filtro. Del mismo modo,
+ * el registro de un login con un inicio de sesión en caché se rechaza
+ * directamente como repetido.
+ *
+ * Con {@code db.signUpBatch} activado, los registros se agrupan en lotes que
+ * se escriben en una sola transacción mediante un {@link SignUpBatcher}. Está
+ * desactivado por defecto porque añade la espera del lote a cada registro.
+ *
+ * Las contraseñas se guardan como hashes PBKDF2 calculados por un
+ * {@link PasswordHasher} en su propio ejecutor, nunca mientras se tiene una
+ * conexión prestada. Las contraseñas antiguas en claro o con un hash débil se
+ * recalculan en segundo plano tras un inicio de sesión correcto.
+ *
+ * Además de {@link Signable}, implementa {@link AsyncSignable}: las consultas
+ * se ejecutan en un ejecutor propio de {@code db.asyncThreads} hilos y las
+ * verificaciones en el {@link PasswordHasher}, encadenadas sin bloquear a
+ * quien llama.
+ *
+ * Si se configura un {@link ReplicaRouter}, la lectura del usuario en el
+ * inicio de sesión se hace en una réplica; si no hay ninguna válida, o la
+ * réplica no encuentra el login o falla, se repite en la base de datos
+ * principal, porque el login puede ser un registro que aún no ha llegado a la
+ * réplica. Los registros y las demás escrituras van siempre a la principal.
+ *
+ * La latencia de cada consulta se publica en {@link MetricsRegistry} como
+ * {@code dao_query_latency_us}, con la consulta como etiqueta.
  *
  * @author Urko
  */
-public class Dao implements Signable {
+public class Dao implements Signable, AsyncSignable {
 
     // Logger para registrar eventos y errores
     private static final Logger LOGGER = Logger.getLogger(Dao.class.getName());
@@ -29,10 +89,61 @@ public class Dao implements Signable {
     // Instancia del pool de conexiones a PostgreSQL
     private PostgresConnectionPool pool;
 
-    // Consultas SQL para insertar y autenticar usuarios
-    private final String sqlInsertUser = "INSERT INTO res_users(company_id, partner_id, active, login, password, notification_type) VALUES (1, ?, ?, ?, ?, ?) RETURNING id";
-    private final String sqlInsertPartner = "INSERT INTO res_partner (company_id, name, display_name, street, zip, city, email) VALUES (1, ?, ?, ?, ?, ?, ?) RETURNING id";
-    private final String sqlSignInVitaminado = "SELECT p.name, u.active FROM res_users u JOIN res_partner p ON u.partner_id = p.id WHERE u.login = ? AND u.password = ?";
+    // Réplicas para las lecturas del inicio de sesión, o null si se lee de la principal
+    private final ReplicaRouter replicas;
+
+    // Caché de inicios de sesión correctos
+    private final SignInCache signInCache;
+
+    // Caché negativa de inicios de sesión fallidos
+    private final SignInCache failedSignIns;
+
+    // Filtro de Bloom de los logins existentes
+    private final LoginFilter loginFilter;
+
+    // Hilo que reconstruye el filtro de logins periódicamente
+    private ScheduledExecutorService loginReloader;
+
+    // Agrupador de registros, o null si se registran uno a uno
+    private final SignUpBatcher signUpBatcher;
+
+    // Cálculo y verificación de hashes de contraseñas
+    private final PasswordHasher passwordHasher;
+
+    // Hilos que ejecutan las consultas de las operaciones asíncronas
+    private final ThreadPoolExecutor asyncExecutor;
+
+    // Consultas SQL para registrar y autenticar usuarios; el registro inserta en res_partner y res_users en un solo viaje
+    private final String sqlSignUp = "WITH partner AS (INSERT INTO res_partner (company_id, name, display_name, street, zip, city, email) VALUES (1, ?, ?, ?, ?, ?, ?) RETURNING id) "
+            + "INSERT INTO res_users(company_id, partner_id, active, login, password, notification_type) SELECT 1, partner.id, ?, ?, ?, 'Email' FROM partner RETURNING id";
+    private final String sqlSignInVitaminado = "SELECT u.id, p.name, u.active, u.password FROM res_users u JOIN res_partner p ON u.partner_id = p.id WHERE u.login = ?";
+    private final String sqlUpdatePassword = "UPDATE res_users SET password = ? WHERE id = ? AND password = ?";
+    private final String sqlSelectLogins = "SELECT login FROM res_users";
+
+    // Consultas SQL para registrar un lote de usuarios a partir de arrays
+    private final String sqlSelectExistingLogins = "SELECT login FROM res_users WHERE login = ANY(?)";
+    private final String sqlInsertPartners = "INSERT INTO res_partner (company_id, name, display_name, street, zip, city, email) SELECT 1, t.name, t.name, t.street, t.zip, t.city, t.email FROM unnest(?, ?, ?, ?, ?) AS t(name, street, zip, city, email) RETURNING id, email";
+    private final String sqlInsertUsers = "INSERT INTO res_users(company_id, partner_id, active, login, password, notification_type) SELECT 1, t.partner_id, t.active, t.login, t.password, 'Email' FROM unnest(?, ?, ?, ?) AS t(partner_id, active, login, password) RETURNING id, login";
+
+    // Consultas para mover usuarios entre shards: lectura paginada por login y borrado del usuario con su socio
+    private final String sqlExportUsers = "SELECT u.login, u.password, u.active, p.name, p.street, p.zip, p.city FROM res_users u JOIN res_partner p ON u.partner_id = p.id WHERE u.login > ? ORDER BY u.login LIMIT ?";
+    private final String sqlDeleteUsers = "WITH deleted AS (DELETE FROM res_users WHERE login = ANY(?) RETURNING partner_id) DELETE FROM res_partner WHERE id IN (SELECT partner_id FROM deleted)";
+
+    // Latencia de cada consulta, en microsegundos, publicada en las métricas
+    private final Histogram signUpLatency = queryLatency("sign_up");
+    private final Histogram signInLatency = queryLatency("sign_in");
+    private final Histogram updatePasswordLatency = queryLatency("update_password");
+    private final Histogram selectLoginsLatency = queryLatency("select_logins");
+    private final Histogram selectExistingLoginsLatency = queryLatency("select_existing_logins");
+    private final Histogram insertPartnersLatency = queryLatency("insert_partners");
+    private final Histogram insertUsersLatency = queryLatency("insert_users");
+    private final Histogram exportUsersLatency = queryLatency("export_users");
+    private final Histogram deleteUsersLatency = queryLatency("delete_users");
+
+    /**
+     * SQLSTATE de PostgreSQL para una clave única repetida.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
 
     /**
      * Constructor que inicializa el DAO con un pool de conexiones.
@@ -41,129 +152,604 @@ public class Dao implements Signable {
      * base de datos.
      */
     public Dao(PostgresConnectionPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Constructor que inicializa el DAO con el pool de la base de datos
+     * principal y las réplicas para los inicios de sesión.
+     *
+     * @param pool El pool de conexiones a la base de datos principal.
+     * @param replicas Las réplicas para las lecturas, o {@code null} para
+     * leer de la principal.
+     */
+    public Dao(PostgresConnectionPool pool, ReplicaRouter replicas) {
+        this(pool, replicas, new SignInCache(),
+                new SignInCache(ServerConfig.getInt("db.negativeCacheSize", 10000), ServerConfig.getLong("db.negativeCacheTtl", 5000)),
+                new LoginFilter(), new PasswordHasher());
+    }
+
+    /**
+     * Constructor que inicializa el DAO con un pool de conexiones, las cachés
+     * que filtran los inicios de sesión y el calculador de hashes.
+     *
+     * @param pool El pool de conexiones que se usará para las operaciones de
+     * base de datos.
+     * @param replicas Las réplicas para las lecturas, o {@code null} para
+     * leer de la principal.
+     * @param signInCache La caché de inicios de sesión correctos.
+     * @param failedSignIns La caché de inicios de sesión fallidos.
+     * @param loginFilter El filtro de logins existentes.
+     * @param passwordHasher El calculador de hashes de contraseñas.
+     */
+    public Dao(PostgresConnectionPool pool, ReplicaRouter replicas, SignInCache signInCache, SignInCache failedSignIns,
+            LoginFilter loginFilter, PasswordHasher passwordHasher) {
+        this(pool, replicas, signInCache, failedSignIns, loginFilter, passwordHasher,
+                ServerConfig.getBoolean("db.signUpBatch", false));
+    }
+
+    /**
+     * Constructor completo.
+     *
+     * @param pool El pool de conexiones a la base de datos principal.
+     * @param replicas Las réplicas para las lecturas, o {@code null}.
+     * @param signInCache La caché de inicios de sesión correctos.
+     * @param failedSignIns La caché de inicios de sesión fallidos.
+     * @param loginFilter El filtro de logins existentes.
+     * @param passwordHasher El calculador de hashes, o {@code null} si el DAO
+     * no atiende inicios de sesión ni registros.
+     * @param batchSignUps Si los registros se agrupan en lotes.
+     */
+    private Dao(PostgresConnectionPool pool, ReplicaRouter replicas, SignInCache signInCache, SignInCache failedSignIns,
+            LoginFilter loginFilter, PasswordHasher passwordHasher, boolean batchSignUps) {
         this.pool = pool;
+        this.replicas = replicas;
+        this.signInCache = signInCache;
+        this.failedSignIns = failedSignIns;
+        this.loginFilter = loginFilter;
+        this.passwordHasher = passwordHasher;
+        AtomicInteger threadCount = new AtomicInteger();
+        int asyncThreads = Math.max(1, ServerConfig.getInt("db.asyncThreads", 16));
+        this.asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, ServerConfig.getInt("db.asyncQueue", 1024))), runnable -> {
+                    Thread thread = new Thread(runnable, "dao-async-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.asyncExecutor.allowCoreThreadTimeOut(true);
+        if (batchSignUps) {
+            this.signUpBatcher = new SignUpBatcher(this::insertUsers,
+                    ServerConfig.getInt("db.signUpBatchSize", 64),
+                    ServerConfig.getLong("db.signUpBatchDelay", 2),
+                    ServerConfig.getInt("db.signUpBatchWriters", 2),
+                    ServerConfig.getInt("db.signUpBatchQueue", 1024));
+        } else {
+            this.signUpBatcher = null;
+        }
+    }
+
+    /**
+     * Crea un DAO que solo copia y borra usuarios, para
+     * {@link ShardRebalancer}. No tiene cachés, ni filtro de logins cargado,
+     * ni agrupador de registros, ni calculador de hashes, porque los usuarios
+     * se copian con el hash que ya tienen; no sirve para
+     * {@link #signIn(User)} ni {@link #signUp(User)}.
+     *
+     * @param pool El pool de la base de datos.
+     * @return El DAO.
+     */
+    static Dao forMigration(PostgresConnectionPool pool) {
+        return new Dao(pool, null, new SignInCache(0, 0), new SignInCache(0, 0), new LoginFilter(), null, false);
+    }
+
+    /**
+     * Devuelve la caché de inicios de sesión, para consultar sus estadísticas.
+     *
+     * @return La caché de inicios de sesión.
+     */
+    public SignInCache getSignInCache() {
+        return signInCache;
+    }
+
+    /**
+     * Devuelve la caché de inicios de sesión fallidos.
+     *
+     * @return La caché negativa.
+     */
+    public SignInCache getFailedSignInCache() {
+        return failedSignIns;
+    }
+
+    /**
+     * Devuelve el filtro de logins existentes.
+     *
+     * @return El filtro de logins.
+     */
+    public LoginFilter getLoginFilter() {
+        return loginFilter;
+    }
+
+    /**
+     * Devuelve el calculador de hashes de contraseñas.
+     *
+     * @return El calculador de hashes.
+     */
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    /**
+     * Devuelve el número de lotes de registros escritos.
+     *
+     * @return Los lotes escritos, o {@code 0} si no se agrupan los registros.
+     */
+    public long getSignUpBatchCount() {
+        return signUpBatcher == null ? 0 : signUpBatcher.getBatchCount();
+    }
+
+    /**
+     * Devuelve el número de usuarios registrados mediante lotes.
+     *
+     * @return Los usuarios escritos en lotes.
+     */
+    public long getBatchedSignUpCount() {
+        return signUpBatcher == null ? 0 : signUpBatcher.getBatchedUserCount();
+    }
+
+    /**
+     * Detiene el agrupador de registros y el ejecutor asíncrono. Los registros
+     * pendientes de lote se rechazan con {@code CONNECTION_ERROR}. No cierra
+     * el pool, que pertenece a quien lo creó.
+     */
+    public void close() {
+        if (signUpBatcher != null) {
+            signUpBatcher.shutdown();
+        }
+        asyncExecutor.shutdown();
+    }
+
+    /**
+     * Carga en el filtro todos los logins de la base de datos.
+     *
+     * Si la carga falla se mantiene el filtro anterior; si no había ninguno,
+     * el filtro sigue dejando pasar todos los logins.
+     *
+     * @return {@code true} si se han cargado los logins.
+     */
+    public boolean loadLogins() {
+        Connection conn;
+        try {
+            conn = pool.getConnection();
+        } catch (SQLException event) {
+            conn = null;
+        }
+        if (conn == null) {
+            LOGGER.warning("No se pudo obtener una conexión para cargar los logins.");
+            return false;
+        }
+        loginFilter.beginRebuild();
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(sqlSelectLogins);
+                ResultSet rs = stmt.executeQuery()) {
+            List<String> logins = new ArrayList<>();
+            while (rs.next()) {
+                logins.add(rs.getString(1));
+            }
+            selectLoginsLatency.recordSince(start);
+            loginFilter.finishRebuild(logins);
+            LOGGER.log(Level.INFO, "Filtro de logins cargado con {0} logins.", logins.size());
+            return true;
+        } catch (SQLException event) {
+            loginFilter.abortRebuild();
+            LOGGER.log(Level.SEVERE, "Error al cargar los logins: {0}", event.getMessage());
+            return false;
+        } finally {
+            pool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Prepara las sentencias del DAO en todas las conexiones libres, para que
+     * las primeras peticiones las encuentren en la caché de cada conexión. En
+     * las réplicas solo se prepara la lectura del inicio de sesión.
+     *
+     * @return Número de conexiones preparadas.
+     */
+    public int prepareStatements() {
+        int prepared = prepareStatements(pool, sqlSignInVitaminado, sqlSignUp, sqlUpdatePassword,
+                sqlSelectExistingLogins, sqlInsertPartners, sqlInsertUsers);
+        if (replicas != null) {
+            for (ReplicaRouter.Replica replica : replicas.getReplicas()) {
+                prepared += prepareStatements(replica.getPool(), sqlSignInVitaminado);
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Prepara sentencias en las conexiones libres de un pool. Toma todas a la
+     * vez para no recibir dos veces la misma.
+     *
+     * @param pool El pool.
+     * @param sqls Las sentencias.
+     * @return Número de conexiones preparadas.
+     */
+    private int prepareStatements(PostgresConnectionPool pool, String... sqls) {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = pool.getIdleConnections(); i > 0; i--) {
+                Connection conn = pool.getConnection();
+                if (conn == null) {
+                    break;
+                }
+                connections.add(conn);
+                for (String sql : sqls) {
+                    pool.prepareStatement(conn, sql);
+                }
+            }
+        } catch (SQLException event) {
+            LOGGER.log(Level.WARNING, "Error al preparar las sentencias del pool {0}: {1}",
+                    new Object[]{pool.getName(), event.getMessage()});
+        } finally {
+            for (Connection conn : connections) {
+                pool.releaseConnection(conn);
+            }
+        }
+        return connections.size();
+    }
+
+    /**
+     * Recarga periódicamente el filtro de logins, para que incluya los
+     * usuarios creados fuera de este servidor.
+     *
+     * @param interval intervalo entre recargas en milisegundos.
+     */
+    public synchronized void scheduleLoginReload(long interval) {
+        if (loginReloader != null || interval <= 0) {
+            return;
+        }
+        loginReloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "login-filter-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loginReloader.scheduleWithFixedDelay(this::loadLogins, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Método para registrar un nuevo usuario.
      *
-     * Este método realiza las siguientes acciones: 1. Obtiene una conexión del
-     * pool. 2. Inserta un nuevo registro en la tabla 'res_partner'. 3. Inserta
-     * un nuevo registro en la tabla 'res_users' usando el ID del registro de
-     * 'res_partner'. 4. Maneja transacciones para asegurar la integridad de los
-     * datos.
+     * Descarta los logins que se saben repetidos, calcula el hash de la
+     * contraseña y registra el usuario, por lotes si están activados o con una
+     * única sentencia si no.
      *
      * @param user El objeto User que contiene la información del nuevo usuario.
      * @return Un objeto Message que indica el resultado de la operación.
      */
     @Override
     public Message signUp(User user) {
+        Message response = rejectSignUp(user);
+        if (response != null) {
+            return response;
+        }
+
+        // El hash se calcula antes de pedir una conexión
+        String password;
+        try {
+            password = passwordHasher.hash(user.getPass()).get();
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+            return new Message(MessageType.CONNECTION_ERROR, user);
+        } catch (ExecutionException event) {
+            return hashFailure(event, user);
+        }
+
+        response = signUpBatcher != null ? signUpBatcher.submit(user, password) : insertUser(user, password);
+        return signedUp(user, response);
+    }
+
+    /**
+     * Versión asíncrona de {@link #signUp(User)}. El hash se calcula en el
+     * {@link PasswordHasher} y la inserción en el agrupador de registros o en
+     * el ejecutor asíncrono del DAO, sin bloquear el hilo que llama.
+     *
+     * @param user El objeto User que contiene la información del nuevo usuario.
+     * @return Un futuro con el Message que indica el resultado de la operación.
+     */
+    @Override
+    public CompletableFuture<Message> signUpAsync(User user) {
+        Message response = rejectSignUp(user);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        return passwordHasher.hash(user.getPass())
+                .thenCompose(password -> signUpBatcher != null
+                        ? signUpBatcher.submitAsync(user, password)
+                        : supplyAsync(() -> insertUser(user, password), new Message(MessageType.CONNECTION_ERROR, user)))
+                .handle((result, error) -> error != null ? hashFailure(error, user) : signedUp(user, result));
+    }
+
+    /**
+     * Comprobaciones previas a un registro, sin base de datos.
+     *
+     * @param user El usuario que se va a registrar.
+     * @return {@code LOGIN_EXIST_ERROR} si el login se sabe repetido, o
+     * {@code null} si hay que registrarlo.
+     */
+    private Message rejectSignUp(User user) {
+        // Un login que ha iniciado sesión hace poco ya existe
+        if (signInCache.contains(user.getLogin())) {
+            LOGGER.log(Level.FINE, "Login repetido detectado en caché: {0}", user.getLogin());
+            return new Message(MessageType.LOGIN_EXIST_ERROR, user);
+        }
+
+        // Los intentos fallidos guardados para este login dejan de ser fiables
+        failedSignIns.invalidate(user.getLogin());
+        return null;
+    }
+
+    /**
+     * Anota en el filtro de logins un registro correcto.
+     *
+     * @param user El usuario registrado.
+     * @param response El resultado del registro.
+     * @return El mismo resultado.
+     */
+    private Message signedUp(User user, Message response) {
+        if (response.getType() == MessageType.OK_RESPONSE) {
+            loginFilter.add(user.getLogin());
+        }
+        return response;
+    }
+
+    /**
+     * Registra un único usuario.
+     *
+     * Este método realiza las siguientes acciones: 1. Obtiene una conexión del
+     * pool. 2. Inserta el registro de 'res_partner' y el de 'res_users' con una
+     * única sentencia, en la que el ID del socio pasa de una inserción a otra
+     * dentro de la base de datos. 3. Asigna al usuario el ID de 'res_users'
+     * devuelto. Al ser una única sentencia es atómica por sí misma y no hace
+     * falta manejar la transacción.
+     *
+     * @param user El objeto User que contiene la información del nuevo usuario.
+     * @param password El hash de la contraseña que se guardará.
+     * @return Un objeto Message que indica el resultado de la operación.
+     */
+    private Message insertUser(User user, String password) {
 
         Connection conn = null;
-        PreparedStatement stmtInsertPartner = null;
-        PreparedStatement stmtInsertUser = null;
+        PreparedStatement stmt;
         ResultSet rs = null;
 
         try {
             // Obtener una conexión del pool de conexiones
             conn = pool.getConnection();
 
-            // Verificar si la conexión es válida
-            if (conn == null || !conn.isValid(2)) {
+            // El pool ya entrega conexiones validadas; null indica que no hay ninguna
+            if (conn == null) {
                 LOGGER.warning("Error: No se pudo obtener una conexión válida.");
                 return new Message(MessageType.CONNECTION_ERROR, user);
             }
 
-            // Desactivar el autocommit para manejar la transacción manualmente
-            conn.setAutoCommit(false);
+            // Preparar la inserción conjunta en res_partner y res_users
+            stmt = pool.prepareStatement(conn, sqlSignUp);
+            stmt.setString(1, user.getName());      // nombre
+            stmt.setString(2, user.getName());      // display_name
+            stmt.setString(3, user.getStreet());    // street
+            stmt.setString(4, user.getZip());       // zip
+            stmt.setString(5, user.getCity());      // city
+            stmt.setString(6, user.getLogin());     // email
+            stmt.setBoolean(7, user.getActive());   // active
+            stmt.setString(8, user.getLogin());     // login
+            stmt.setString(9, password);            // password
 
-            // Preparar e insertar en la tabla res_partner
-            stmtInsertPartner = conn.prepareStatement(sqlInsertPartner);
-            stmtInsertPartner.setString(1, user.getName());      // nombre
-            stmtInsertPartner.setString(2, user.getName());      // display_name
-            stmtInsertPartner.setString(3, user.getStreet());    // street
-            stmtInsertPartner.setString(4, user.getZip());       // zip
-            stmtInsertPartner.setString(5, user.getCity());      // city
-            stmtInsertPartner.setString(6, user.getLogin());     // email
-
-            // Ejecutar la consulta e insertar en res_partner
-            rs = stmtInsertPartner.executeQuery();
+            // Ejecutar la sentencia y obtener el ID del res_user
+            long start = System.nanoTime();
+            rs = stmt.executeQuery();
+            signUpLatency.recordSince(start);
             if (rs.next()) {
-                int resPartnerId = rs.getInt("id");
-
-                // Preparar e insertar en res_users usando el ID de res_partner
-                stmtInsertUser = conn.prepareStatement(sqlInsertUser);
-                stmtInsertUser.setInt(1, resPartnerId);           // partner_id
-                stmtInsertUser.setBoolean(2, user.getActive());   // active
-                stmtInsertUser.setString(3, user.getLogin());     // login
-                stmtInsertUser.setString(4, user.getPass());      // password
-                stmtInsertUser.setString(5, "Email");             // notification_type
-
-                // Ejecutar la consulta y obtener el ID del res_user
-                rs = stmtInsertUser.executeQuery();
-                if (rs.next()) {
-                    int resUserId = rs.getInt("id");
-                    user.setResUserId(resUserId);  // Asignar el ID generado al usuario
-
-                    // Confirmar la transacción
-                    conn.commit();
-
-                    LOGGER.log(Level.INFO, "Usuario registrado correctamente: {0}", user.getLogin());
-                    return new Message(MessageType.OK_RESPONSE, user);
-                } else {
-                    // Si no se pudo insertar en res_users, hacer rollback
-                    conn.rollback();
-                    LOGGER.log(Level.SEVERE, "Error al insertar en res_users para el usuario: {0}", user.getLogin());
-                    return new Message(MessageType.SQL_ERROR, user);
-                }
+                user.setResUserId(rs.getInt("id"));  // Asignar el ID generado al usuario
+                LOGGER.log(Level.INFO, "Usuario registrado correctamente: {0}", user.getLogin());
+                return new Message(MessageType.OK_RESPONSE, user);
             } else {
-                // Si no se pudo insertar en res_partner, hacer rollback
-                conn.rollback();
-                LOGGER.log(Level.SEVERE, "Error al insertar en res_partner para el usuario: {0}", user.getLogin());
+                LOGGER.log(Level.SEVERE, "Error al insertar el usuario: {0}", user.getLogin());
                 return new Message(MessageType.SQL_ERROR, user);
             }
 
         } catch (SQLException event) {
-            // Manejar errores generales de SQL
-            try {
-                if (conn != null) {
-                    conn.rollback();  // Hacer rollback en caso de error
-                }
-            } catch (SQLException sqlEvent) {
-                LOGGER.log(Level.SEVERE, "Error al hacer rollback: {0}", sqlEvent.getMessage());
-                return new Message(MessageType.BAD_RESPONSE, user);
+            // La sentencia falla entera, sin dejar un res_partner huérfano
+            if (UNIQUE_VIOLATION.equals(event.getSQLState())) {
+                LOGGER.log(Level.SEVERE, "Error al insertar usuario, login repetido: {0}", event.getMessage());
+                return new Message(MessageType.LOGIN_EXIST_ERROR, user);
             }
-            LOGGER.log(Level.SEVERE, "Error al insertar usuario, login repetido: {0}", event.getMessage());
-            return new Message(MessageType.LOGIN_EXIST_ERROR, user);
+            // Conexión perdida, tiempo agotado u otra restricción: el login no consta como existente
+            LOGGER.log(Level.SEVERE, "Error al insertar usuario: {0}", event.getMessage());
+            return new Message(MessageType.SQL_ERROR, user);
 
         } finally {
             // Liberar recursos en el bloque finally
             try {
                 if (rs != null) {
-                    rs.close();  // Cerrar ResultSet
+                    rs.close();  // Cerrar ResultSet; la sentencia queda en la caché
+                }
+            } catch (SQLException event) {
+                LOGGER.log(Level.SEVERE, "Error al liberar recursos: {0}", event.getMessage());
+            }
+            if (conn != null) {
+                pool.releaseConnection(conn);  // Liberar la conexión de vuelta al pool
+            }
+        }
+    }
+
+    /**
+     * Registra un lote de usuarios en una sola transacción.
+     *
+     * Los logins repetidos dentro del lote o ya existentes en la base de datos
+     * reciben {@code LOGIN_EXIST_ERROR} sin afectar al resto. Los demás se
+     * insertan con una sentencia para 'res_partner' y otra para 'res_users'
+     * que reciben los datos como arrays. Si el lote falla, por ejemplo porque
+     * otro proceso ha registrado el mismo login entretanto, se deshace y cada
+     * usuario se registra por separado con {@link #insertUser(User, String)}.
+     *
+     * @param users Los usuarios del lote.
+     * @param hashes Los hashes de sus contraseñas, en el mismo orden.
+     * @return Un Message por usuario, en el mismo orden.
+     */
+    private List<Message> insertUsers(List<User> users, List<String> hashes) {
+        Message[] responses = new Message[users.size()];
+        if (users.size() == 1) {
+            responses[0] = insertUser(users.get(0), hashes.get(0));
+            return Arrays.asList(responses);
+        }
+
+        // Posición de cada login; los repetidos dentro del lote fallan aquí
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            if (positions.putIfAbsent(users.get(i).getLogin(), i) != null) {
+                responses[i] = new Message(MessageType.LOGIN_EXIST_ERROR, users.get(i));
+            }
+        }
+
+        Connection conn = null;
+        try {
+            conn = pool.getConnection();
+        } catch (SQLException event) {
+            LOGGER.log(Level.SEVERE, "Error al obtener una conexión: {0}", event.getMessage());
+        }
+        if (conn == null) {
+            LOGGER.warning("Error: No se pudo obtener una conexión válida.");
+            for (int i = 0; i < responses.length; i++) {
+                if (responses[i] == null) {
+                    responses[i] = new Message(MessageType.CONNECTION_ERROR, users.get(i));
                 }
-                if (stmtInsertUser != null) {
-                    stmtInsertUser.close();  // Cerrar PreparedStatement de usuarios
+            }
+            return Arrays.asList(responses);
+        }
+
+        boolean fallback = false;
+        try {
+            conn.setAutoCommit(false);
+
+            // Descartar los logins que ya existen
+            PreparedStatement stmt = pool.prepareStatement(conn, sqlSelectExistingLogins);
+            stmt.setArray(1, conn.createArrayOf("text", positions.keySet().toArray()));
+            long start = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Integer i = positions.remove(rs.getString(1));
+                    if (i != null) {
+                        responses[i] = new Message(MessageType.LOGIN_EXIST_ERROR, users.get(i));
+                    }
                 }
-                if (stmtInsertPartner != null) {
-                    stmtInsertPartner.close();  // Cerrar PreparedStatement de socios
+            }
+            selectExistingLoginsLatency.recordSince(start);
+
+            if (!positions.isEmpty()) {
+                List<User> pending = new ArrayList<>(positions.size());
+                List<String> pendingHashes = new ArrayList<>(positions.size());
+                for (int i : positions.values()) {
+                    pending.add(users.get(i));
+                    pendingHashes.add(hashes.get(i));
                 }
-                if (conn != null) {
-                    pool.releaseConnection(conn);  // Liberar la conexión de vuelta al pool
+                int size = pending.size();
+                String[] names = new String[size];
+                String[] streets = new String[size];
+                String[] zips = new String[size];
+                String[] cities = new String[size];
+                String[] logins = new String[size];
+                Boolean[] actives = new Boolean[size];
+                String[] passwords = new String[size];
+                for (int i = 0; i < size; i++) {
+                    User user = pending.get(i);
+                    names[i] = user.getName();
+                    streets[i] = user.getStreet();
+                    zips[i] = user.getZip();
+                    cities[i] = user.getCity();
+                    logins[i] = user.getLogin();
+                    actives[i] = user.getActive();
+                    passwords[i] = pendingHashes.get(i);
                 }
+
+                // Insertar los socios; el email es el login y sirve para asociar los ids
+                Map<String, Integer> partnerIds = new HashMap<>();
+                stmt = pool.prepareStatement(conn, sqlInsertPartners);
+                stmt.setArray(1, conn.createArrayOf("text", names));
+                stmt.setArray(2, conn.createArrayOf("text", streets));
+                stmt.setArray(3, conn.createArrayOf("text", zips));
+                stmt.setArray(4, conn.createArrayOf("text", cities));
+                stmt.setArray(5, conn.createArrayOf("text", logins));
+                start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        partnerIds.put(rs.getString("email"), rs.getInt("id"));
+                    }
+                }
+                insertPartnersLatency.recordSince(start);
+                Integer[] partners = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    partners[i] = partnerIds.get(logins[i]);
+                }
+
+                // Insertar los usuarios
+                stmt = pool.prepareStatement(conn, sqlInsertUsers);
+                stmt.setArray(1, conn.createArrayOf("int4", partners));
+                stmt.setArray(2, conn.createArrayOf("bool", actives));
+                stmt.setArray(3, conn.createArrayOf("text", logins));
+                stmt.setArray(4, conn.createArrayOf("text", passwords));
+                Map<String, Integer> userIds = new HashMap<>();
+                start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        userIds.put(rs.getString("login"), rs.getInt("id"));
+                    }
+                }
+                insertUsersLatency.recordSince(start);
+                if (userIds.size() != size) {
+                    throw new SQLException("Se esperaban " + size + " usuarios insertados y se obtuvieron " + userIds.size());
+                }
+                conn.commit();
+
+                for (User user : pending) {
+                    user.setResUserId(userIds.get(user.getLogin()));
+                    responses[positions.get(user.getLogin())] = new Message(MessageType.OK_RESPONSE, user);
+                }
+                LOGGER.log(Level.INFO, "Lote de {0} usuarios registrado correctamente.", size);
+            } else {
+                conn.rollback();
+            }
+        } catch (SQLException event) {
+            LOGGER.log(Level.WARNING, "Error al registrar el lote, se registra usuario a usuario: {0}", event.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException sqlEvent) {
+                LOGGER.log(Level.SEVERE, "Error al hacer rollback: {0}", sqlEvent.getMessage());
+            }
+            fallback = true;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
             } catch (SQLException event) {
-                LOGGER.log(Level.SEVERE, "Error al liberar recursos: {0}", event.getMessage());
-                return new Message(MessageType.BAD_RESPONSE, user);
+                LOGGER.log(Level.SEVERE, "Error al restaurar el autocommit: {0}", event.getMessage());
             }
+            pool.releaseConnection(conn);
         }
+
+        if (fallback) {
+            for (int i : positions.values()) {
+                responses[i] = insertUser(users.get(i), hashes.get(i));
+            }
+        }
+        return Arrays.asList(responses);
     }
 
     /**
      * Método para validar un usuario (inicio de sesión).
      *
      * Este método realiza las siguientes acciones: 1. Obtiene una conexión del
-     * pool. 2. Prepara la consulta SQL para validar el login y la contraseña.
-     * 3. Retorna un mensaje que indica si el inicio de sesión fue exitoso o no.
+     * pool. 2. Lee el usuario y su contraseña guardada por login y libera la
+     * conexión. 3. Verifica la contraseña en el {@link PasswordHasher}. 4.
+     * Retorna un mensaje que indica si el inicio de sesión fue exitoso o no.
      *
      * @param user El objeto User que contiene la información de inicio de
      * sesión.
@@ -171,57 +757,172 @@ public class Dao implements Signable {
      */
     @Override
     public Message signIn(User user) {
+        Message response = cachedSignIn(user);
+        if (response != null) {
+            return response;
+        }
+
+        StoredUser stored = readUser(user);
+        if (stored.error != null) {
+            return stored.error;
+        }
 
+        // Comprobar la contraseña en el ejecutor de hashes
+        boolean valid;
+        try {
+            valid = passwordHasher.verify(user.getPass(), stored.password).get();
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+            return new Message(MessageType.CONNECTION_ERROR, user);
+        } catch (ExecutionException event) {
+            return hashFailure(event, user);
+        }
+        return completeSignIn(user, stored, valid);
+    }
+
+    /**
+     * Versión asíncrona de {@link #signIn(User)}. La lectura se hace en el
+     * ejecutor asíncrono del DAO y la verificación en el
+     * {@link PasswordHasher}, sin bloquear el hilo que llama.
+     *
+     * @param user El objeto User que contiene la información de inicio de
+     * sesión.
+     * @return Un futuro con el Message que indica el resultado de la operación.
+     */
+    @Override
+    public CompletableFuture<Message> signInAsync(User user) {
+        Message response = cachedSignIn(user);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        return supplyAsync(() -> readUser(user), new StoredUser(new Message(MessageType.CONNECTION_ERROR, user)))
+                .thenCompose(stored -> stored.error != null
+                        ? CompletableFuture.completedFuture(stored.error)
+                        : passwordHasher.verify(user.getPass(), stored.password)
+                                .handle((valid, error) -> error != null ? hashFailure(error, user) : completeSignIn(user, stored, valid)));
+    }
+
+    /**
+     * Resuelve un inicio de sesión sin base de datos cuando es posible.
+     *
+     * @param user El usuario con su login y contraseña.
+     * @return La respuesta, o {@code null} si hay que consultar la base de
+     * datos.
+     */
+    private Message cachedSignIn(User user) {
+        // Si el login ya inició sesión con esta contraseña no hace falta conexión
+        SignInCache.Entry cached = signInCache.lookup(user.getLogin(), user.getPass());
+        if (cached != null) {
+            if (!cached.isActive()) {
+                return new Message(MessageType.NON_ACTIVE, null);
+            }
+            User newUser = new User();
+            newUser.setName(cached.getName());
+            newUser.setActive(true);
+            return new Message(MessageType.LOGIN_OK, newUser);
+        }
+
+        // Intentos que seguro que fallan: contraseña errónea repetida, o login
+        // fuera del filtro que ya se ha buscado sin éxito hace poco
+        if (failedSignIns.lookup(user.getLogin(), user.getPass()) != null
+                || (!loginFilter.mightExist(user.getLogin()) && failedSignIns.contains(user.getLogin()))) {
+            return new Message(MessageType.SIGNIN_ERROR, user);
+        }
+        return null;
+    }
+
+    /**
+     * Lee de la base de datos el usuario de un login, como
+     * {@link #readRouted(User)}, y anota el resultado en las cachés: un login
+     * que no existe en la principal va a la caché de fallos, y uno que existe
+     * pero falta en el filtro de logins se añade al filtro.
+     *
+     * @param user El usuario con el login buscado.
+     * @return Los datos guardados, o un StoredUser con el mensaje de error si
+     * el login no existe o la consulta falla.
+     */
+    private StoredUser readUser(User user) {
+        StoredUser stored = readRouted(user);
+        if (stored.error != null && stored.error.getType() == MessageType.SIGNIN_ERROR) {
+            // Solo la principal responde SIGNIN_ERROR: los fallos de la réplica se repiten en ella
+            failedSignIns.put(user.getLogin(), user.getPass(), null, false);
+        }
+        if (stored.error == null && !loginFilter.mightExist(user.getLogin())) {
+            // Usuario creado fuera de este servidor desde la última carga del filtro
+            loginFilter.add(user.getLogin());
+        }
+        return stored;
+    }
+
+    /**
+     * Lee de la base de datos el usuario de un login, en una réplica si la hay
+     * y en la principal si no o si la réplica no lo encuentra. No consulta ni
+     * modifica las cachés.
+     *
+     * @param user El usuario con el login buscado.
+     * @return Los datos guardados, o un StoredUser con el mensaje de error si
+     * el login no existe o la consulta falla.
+     */
+    private StoredUser readRouted(User user) {
+        ReplicaRouter.Replica replica = replicas == null ? null : replicas.acquire();
+        if (replica != null) {
+            StoredUser stored;
+            try {
+                stored = readUser(user, replica.getPool());
+            } finally {
+                replicas.release(replica);
+            }
+            if (stored.error == null) {
+                return stored;
+            }
+            // Puede ser un registro que aún no ha llegado a la réplica
+            replicas.recordFallback();
+        }
+        return readUser(user, pool);
+    }
+
+    /**
+     * Lee el usuario de un login de la base de datos de un pool.
+     *
+     * @param user El usuario con el login buscado.
+     * @param pool El pool de la base de datos que se consulta.
+     * @return Los datos guardados, o un StoredUser con el mensaje de error si
+     * el login no existe o la consulta falla.
+     */
+    private StoredUser readUser(User user, PostgresConnectionPool pool) {
         Connection conn = null;
-        PreparedStatement stmt = null;
+        PreparedStatement stmt;
         ResultSet rs = null;
         try {
             // Obtener una conexión del pool
             conn = pool.getConnection();
 
-            // Verificar si la conexión es válida
-            if (conn == null || !conn.isValid(2)) {
+            // El pool ya entrega conexiones validadas; null indica que no hay ninguna
+            if (conn == null) {
                 LOGGER.warning("Error: No se pudo obtener una conexión válida.");
-                return new Message(MessageType.CONNECTION_ERROR, user);
+                return new StoredUser(new Message(MessageType.CONNECTION_ERROR, user));
             }
 
-            // Preparar la consulta SQL para validar el login
-            stmt = conn.prepareStatement(sqlSignInVitaminado);
+            // Preparar la consulta SQL para buscar el login
+            stmt = pool.prepareStatement(conn, sqlSignInVitaminado);
             stmt.setString(1, user.getLogin());
-            stmt.setString(2, user.getPass());
 
+            long start = System.nanoTime();
             rs = stmt.executeQuery();
-
-            // Si se encuentra un usuario, el inicio de sesión es válido
-            if (rs.next()) {
-                User newUser = new User();  // Crear un nuevo objeto User
-                newUser.setName(rs.getString("name"));  // Rellenar el nombre
-                newUser.setActive(rs.getBoolean("active"));  // Rellenar el estado de actividad
-                if (!newUser.getActive()) {
-                    return new Message(MessageType.NON_ACTIVE, null);  // El usuario no está activo
-                } else {
-                    return new Message(MessageType.LOGIN_OK, newUser);  // Inicio de sesión exitoso
-                }
-
-            } else {
-                return new Message(MessageType.SIGNIN_ERROR, user);  // Error en el inicio de sesión
+            signInLatency.recordSince(start);
+            if (!rs.next()) {
+                return new StoredUser(new Message(MessageType.SIGNIN_ERROR, user));  // Error en el inicio de sesión
             }
+            return new StoredUser(rs.getInt("id"), rs.getString("name"), rs.getBoolean("active"), rs.getString("password"));
         } catch (SQLException event) {
-            return new Message(MessageType.BAD_RESPONSE, user);  // Error de respuesta en caso de excepción
+            return new StoredUser(new Message(MessageType.BAD_RESPONSE, user));  // Error de respuesta en caso de excepción
         } finally {
             // Asegurarse de liberar recursos y la conexión
             if (rs != null) {
                 try {
-                    rs.close();  // Cerrar ResultSet
-                } catch (SQLException event) {
-                    return new Message(MessageType.BAD_RESPONSE, user);  // Error al cerrar ResultSet
-                }
-            }
-            if (stmt != null) {
-                try {
-                    stmt.close();  // Cerrar PreparedStatement
+                    rs.close();  // Cerrar ResultSet; la sentencia queda en la caché
                 } catch (SQLException event) {
-                    return new Message(MessageType.BAD_RESPONSE, user);  // Error al cerrar PreparedStatement
+                    LOGGER.log(Level.WARNING, "Error al cerrar ResultSet: {0}", event.getMessage());
                 }
             }
             if (conn != null) {
@@ -229,4 +930,358 @@ public class Dao implements Signable {
             }
         }
     }
+
+    /**
+     * Termina un inicio de sesión una vez verificada la contraseña.
+     *
+     * @param user El usuario con su login y contraseña.
+     * @param stored Los datos guardados del usuario.
+     * @param valid Si la contraseña es correcta.
+     * @return El mensaje de respuesta.
+     */
+    private Message completeSignIn(User user, StoredUser stored, boolean valid) {
+        if (!valid) {
+            failedSignIns.put(user.getLogin(), user.getPass(), null, false);
+            return new Message(MessageType.SIGNIN_ERROR, user);  // Error en el inicio de sesión
+        }
+        if (passwordHasher.needsRehash(stored.password)) {
+            rehash(stored.id, user.getPass(), stored.password);
+        }
+
+        // El inicio de sesión es válido
+        signInCache.put(user.getLogin(), user.getPass(), stored.name, stored.active);
+        if (!stored.active) {
+            return new Message(MessageType.NON_ACTIVE, null);  // El usuario no está activo
+        }
+        User newUser = new User();  // Crear un nuevo objeto User
+        newUser.setName(stored.name);  // Rellenar el nombre
+        newUser.setActive(true);  // Rellenar el estado de actividad
+        return new Message(MessageType.LOGIN_OK, newUser);  // Inicio de sesión exitoso
+    }
+
+    /**
+     * Recorre el camino de base de datos de un inicio de sesión para calentar
+     * el servidor: lee el usuario con la misma consulta, en una réplica si la
+     * hay, y verifica la contraseña, pero no consulta ni modifica las cachés
+     * (fallos, inicios de sesión válidos y filtro de logins) ni vuelve a
+     * calcular el hash guardado. Con un login existente y
+     * cualquier contraseña recorre todo el camino sin escribir nada.
+     *
+     * @param user El usuario con su login y una contraseña.
+     * @param async Si la lectura se hace en el ejecutor asíncrono, como en
+     * {@link #signInAsync(User)}.
+     * @param verify Si se verifica la contraseña, que cuesta un cálculo de
+     * PBKDF2.
+     * @return Un futuro con {@code LOGIN_OK} si la contraseña es correcta o no
+     * se verifica, o con el error de la lectura o de la verificación.
+     */
+    public CompletableFuture<Message> warmUpSignIn(User user, boolean async, boolean verify) {
+        CompletableFuture<StoredUser> read = async
+                ? supplyAsync(() -> readRouted(user), new StoredUser(new Message(MessageType.CONNECTION_ERROR, user)))
+                : CompletableFuture.completedFuture(readRouted(user));
+        return read.thenCompose(stored -> {
+            if (stored.error != null) {
+                return CompletableFuture.completedFuture(stored.error);
+            }
+            if (!verify) {
+                return CompletableFuture.completedFuture(new Message(MessageType.LOGIN_OK, null));
+            }
+            return passwordHasher.verify(user.getPass(), stored.password)
+                    .handle((valid, error) -> error != null ? hashFailure(error, user)
+                            : new Message(valid ? MessageType.LOGIN_OK : MessageType.SIGNIN_ERROR, null));
+        });
+    }
+
+    /**
+     * Comprueba en la base de datos si un login ya existe, para rechazar un
+     * registro que otra base de datos tendría repetido.
+     *
+     * @param user El usuario con el login buscado.
+     * @return {@code LOGIN_EXIST_ERROR} si existe, {@code CONNECTION_ERROR} o
+     * {@code SQL_ERROR} si no se puede comprobar, o {@code null} si no existe.
+     */
+    public Message checkLogin(User user) {
+        if (signInCache.contains(user.getLogin())) {
+            return new Message(MessageType.LOGIN_EXIST_ERROR, user);
+        }
+        Connection conn = null;
+        try {
+            conn = pool.getConnection();
+            if (conn == null) {
+                LOGGER.warning("Error: No se pudo obtener una conexión válida.");
+                return new Message(MessageType.CONNECTION_ERROR, user);
+            }
+            PreparedStatement stmt = pool.prepareStatement(conn, sqlSelectExistingLogins);
+            stmt.setArray(1, conn.createArrayOf("text", new Object[]{user.getLogin()}));
+            long start = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                selectExistingLoginsLatency.recordSince(start);
+                return rs.next() ? new Message(MessageType.LOGIN_EXIST_ERROR, user) : null;
+            }
+        } catch (SQLException event) {
+            LOGGER.log(Level.SEVERE, "Error al comprobar el login: {0}", event.getMessage());
+            return new Message(MessageType.SQL_ERROR, user);
+        } finally {
+            if (conn != null) {
+                pool.releaseConnection(conn);
+            }
+        }
+    }
+
+    /**
+     * Versión asíncrona de {@link #checkLogin(User)}, en el ejecutor
+     * asíncrono del DAO.
+     *
+     * @param user El usuario con el login buscado.
+     * @return Un futuro con el resultado de la comprobación.
+     */
+    public CompletableFuture<Message> checkLoginAsync(User user) {
+        return supplyAsync(() -> checkLogin(user), new Message(MessageType.CONNECTION_ERROR, user));
+    }
+
+    /**
+     * Lee una página de usuarios ordenada por login, para copiarlos a otra
+     * base de datos.
+     *
+     * @param afterLogin Login a partir del cual se lee, sin incluirlo; la
+     * cadena vacía para empezar por el principio.
+     * @param limit Número máximo de usuarios.
+     * @return Los usuarios, con el hash guardado como contraseña.
+     * @throws SQLException si no hay conexión o falla la consulta.
+     */
+    public List<User> exportUsers(String afterLogin, int limit) throws SQLException {
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            throw new SQLException("No se pudo obtener una conexión válida.");
+        }
+        try {
+            PreparedStatement stmt = pool.prepareStatement(conn, sqlExportUsers);
+            stmt.setString(1, afterLogin);
+            stmt.setInt(2, limit);
+            List<User> users = new ArrayList<>(limit);
+            long start = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = new User();
+                    user.setLogin(rs.getString("login"));
+                    user.setPass(rs.getString("password"));
+                    user.setActive(rs.getBoolean("active"));
+                    user.setName(rs.getString("name"));
+                    user.setStreet(rs.getString("street"));
+                    user.setZip(rs.getString("zip"));
+                    user.setCity(rs.getString("city"));
+                    users.add(user);
+                }
+            }
+            exportUsersLatency.recordSince(start);
+            return users;
+        } finally {
+            pool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Inserta usuarios leídos con {@link #exportUsers(String, int)} de otra
+     * base de datos, conservando el hash de su contraseña.
+     *
+     * @param users Los usuarios, con el hash guardado como contraseña.
+     * @return Un Message por usuario, en el mismo orden:
+     * {@code OK_RESPONSE} si se ha insertado, {@code LOGIN_EXIST_ERROR} si ya
+     * estaba, y {@code CONNECTION_ERROR} o {@code SQL_ERROR} si no se ha
+     * podido insertar.
+     */
+    public List<Message> importUsers(List<User> users) {
+        if (users.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> hashes = new ArrayList<>(users.size());
+        for (User user : users) {
+            hashes.add(user.getPass());
+        }
+        List<Message> responses = insertUsers(users, hashes);
+        for (int i = 0; i < users.size(); i++) {
+            signedUp(users.get(i), responses.get(i));
+        }
+        return responses;
+    }
+
+    /**
+     * Comprueba cuáles de unos logins existen en la base de datos.
+     *
+     * @param logins Los logins buscados.
+     * @return Los que existen.
+     * @throws SQLException si no hay conexión o falla la consulta.
+     */
+    public Set<String> existingLogins(Collection<String> logins) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (logins.isEmpty()) {
+            return existing;
+        }
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            throw new SQLException("No se pudo obtener una conexión válida.");
+        }
+        try {
+            PreparedStatement stmt = pool.prepareStatement(conn, sqlSelectExistingLogins);
+            stmt.setArray(1, conn.createArrayOf("text", logins.toArray()));
+            long start = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
+                }
+            }
+            selectExistingLoginsLatency.recordSince(start);
+            return existing;
+        } finally {
+            pool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Borra usuarios y sus socios, una vez copiados a otra base de datos.
+     *
+     * @param logins Los logins de los usuarios.
+     * @return Número de usuarios borrados.
+     * @throws SQLException si no hay conexión o falla el borrado.
+     */
+    public int deleteUsers(List<String> logins) throws SQLException {
+        if (logins.isEmpty()) {
+            return 0;
+        }
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            throw new SQLException("No se pudo obtener una conexión válida.");
+        }
+        try {
+            PreparedStatement stmt = pool.prepareStatement(conn, sqlDeleteUsers);
+            stmt.setArray(1, conn.createArrayOf("text", logins.toArray()));
+            long start = System.nanoTime();
+            int deleted = stmt.executeUpdate();
+            deleteUsersLatency.recordSince(start);
+            for (String login : logins) {
+                signInCache.invalidate(login);
+            }
+            return deleted;
+        } finally {
+            pool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Ejecuta una tarea de base de datos en el ejecutor asíncrono.
+     *
+     * @param <T> El tipo del resultado.
+     * @param task La tarea.
+     * @param rejected El resultado si el ejecutor está saturado.
+     * @return Un futuro con el resultado de la tarea.
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> task, T rejected) {
+        try {
+            return CompletableFuture.supplyAsync(task, asyncExecutor);
+        } catch (RejectedExecutionException event) {
+            LOGGER.warning("Error: Ejecutor asíncrono del DAO saturado.");
+            return CompletableFuture.completedFuture(rejected);
+        }
+    }
+
+    /**
+     * Traduce el fallo de una tarea del {@link PasswordHasher} a un mensaje:
+     * {@code CONNECTION_ERROR} si el ejecutor estaba saturado y
+     * {@code BAD_RESPONSE} en otro caso.
+     *
+     * @param event El fallo de la tarea, posiblemente envuelto por el futuro.
+     * @param user El usuario de la petición.
+     * @return El mensaje de error.
+     */
+    private Message hashFailure(Throwable event, User user) {
+        Throwable cause = event;
+        if ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            LOGGER.warning("Error: Ejecutor de contraseñas saturado.");
+            return new Message(MessageType.CONNECTION_ERROR, user);
+        }
+        LOGGER.log(Level.SEVERE, "Error al calcular el hash de la contraseña: {0}", cause.toString());
+        return new Message(MessageType.BAD_RESPONSE, user);
+    }
+
+    /**
+     * Sustituye en segundo plano una contraseña en claro o con un hash débil
+     * por un hash nuevo, que se escribe desde el ejecutor asíncrono del DAO
+     * para no ocupar con E/S un hilo de cálculo. La actualización solo se
+     * aplica si la contraseña guardada no ha cambiado entretanto. Si algún
+     * ejecutor está saturado se abandona; se volverá a intentar en el
+     * siguiente inicio de sesión.
+     *
+     * @param userId El ID del res_user.
+     * @param password La contraseña en claro, ya verificada.
+     * @param stored El valor guardado que se sustituye.
+     */
+    private void rehash(int userId, String password, String stored) {
+        passwordHasher.hash(password).thenAcceptAsync(hash -> {
+            Connection conn = null;
+            try {
+                conn = pool.getConnection();
+                if (conn == null) {
+                    return;
+                }
+                PreparedStatement stmt = pool.prepareStatement(conn, sqlUpdatePassword);
+                stmt.setString(1, hash);
+                stmt.setInt(2, userId);
+                stmt.setString(3, stored);
+                long start = System.nanoTime();
+                int updated = stmt.executeUpdate();
+                updatePasswordLatency.recordSince(start);
+                if (updated == 1) {
+                    LOGGER.log(Level.FINE, "Contraseña del usuario {0} recalculada.", userId);
+                }
+            } catch (SQLException event) {
+                LOGGER.log(Level.WARNING, "Error al recalcular la contraseña: {0}", event.getMessage());
+            } finally {
+                if (conn != null) {
+                    pool.releaseConnection(conn);
+                }
+            }
+        }, asyncExecutor);
+    }
+
+    /**
+     * Devuelve el histograma de latencia de una consulta.
+     *
+     * @param statement nombre de la consulta en las métricas.
+     * @return el histograma compartido de esa consulta.
+     */
+    private static Histogram queryLatency(String statement) {
+        return MetricsRegistry.getInstance().histogram("dao_query_latency_us", "statement", statement);
+    }
+
+    /**
+     * Datos de un usuario leídos para validar su inicio de sesión, o el
+     * mensaje de error si no se han podido leer.
+     */
+    private static class StoredUser {
+
+        private final int id;
+        private final String name;
+        private final boolean active;
+        private final String password;
+        private final Message error;
+
+        StoredUser(int id, String name, boolean active, String password) {
+            this.id = id;
+            this.name = name;
+            this.active = active;
+            this.password = password;
+            this.error = null;
+        }
+
+        StoredUser(Message error) {
+            this.id = 0;
+            this.name = null;
+            this.active = false;
+            this.password = null;
+            this.error = error;
+        }
+    }
 }
@@ -0,0 +1,233 @@
+package dbserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro de Bloom con los logins existentes en {@code res_users}.
+ *
+ * <p>
+ * Permite descartar sin consultar la base de datos los inicios de sesión de
+ * logins que no existen: si el filtro dice que un login no está, no estaba en
+ * la última carga ni se ha registrado desde entonces en este servidor. Un
+ * positivo, en cambio, solo indica que probablemente existe, con una tasa de
+ * falsos positivos de {@code db.loginFilterFpp}.
+ * </p>
+ *
+ * <p>
+ * Se carga al arrancar con todos los logins y se amplía con cada registro
+ * correcto. Mientras no se haya cargado deja pasar todos los logins. Los
+ * usuarios creados fuera de este servidor no se añaden solos: {@link Dao}
+ * busca una vez en la base de datos los logins que el filtro no conoce y añade
+ * los que encuentra, y el filtro se reconstruye cada
+ * {@code db.loginFilterRefresh} milisegundos; los registros que ocurren durante
+ * una reconstrucción se apuntan aparte para no perderlos.
+ * </p>
+ *
+ * @author Urko
+ */
+public class LoginFilter {
+
+    /**
+     * Número de logins para el que se dimensiona el filtro como mínimo.
+     */
+    private final int expectedLogins;
+
+    /**
+     * Tasa de falsos positivos objetivo.
+     */
+    private final double falsePositiveRate;
+
+    /**
+     * Filtro publicado; {@code null} hasta la primera carga.
+     */
+    private volatile Bits current;
+
+    /**
+     * Logins registrados durante una reconstrucción en curso, o {@code null}.
+     */
+    private Set<String> pending;
+
+    /**
+     * Consultas de logins que no están en el filtro.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Crea el filtro con la configuración del archivo de propiedades.
+     */
+    public LoginFilter() {
+        this(ServerConfig.getInt("db.loginFilterExpected", 100000), ServerConfig.getDouble("db.loginFilterFpp", 0.01));
+    }
+
+    /**
+     * Crea el filtro.
+     *
+     * @param expectedLogins número de logins para el que se dimensiona como
+     * mínimo.
+     * @param falsePositiveRate tasa de falsos positivos objetivo, entre 0 y 1.
+     */
+    public LoginFilter(int expectedLogins, double falsePositiveRate) {
+        this.expectedLogins = Math.max(1, expectedLogins);
+        this.falsePositiveRate = falsePositiveRate > 0 && falsePositiveRate < 1 ? falsePositiveRate : 0.01;
+    }
+
+    /**
+     * Indica si un login puede existir.
+     *
+     * @param login login del usuario.
+     * @return {@code false} solo si el login no estaba en la última carga ni
+     * se ha añadido después.
+     */
+    public boolean mightExist(String login) {
+        Bits bits = current;
+        if (bits == null || login == null || bits.mightContain(login)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Añade un login recién registrado.
+     *
+     * @param login login del usuario.
+     */
+    public synchronized void add(String login) {
+        if (current != null) {
+            current.add(login);
+        }
+        if (pending != null) {
+            pending.add(login);
+        }
+    }
+
+    /**
+     * Empieza una reconstrucción. Debe llamarse antes de leer los logins de la
+     * base de datos.
+     */
+    synchronized void beginRebuild() {
+        pending = new HashSet<>();
+    }
+
+    /**
+     * Termina una reconstrucción y publica el nuevo filtro.
+     *
+     * @param logins todos los logins leídos de la base de datos.
+     */
+    synchronized void finishRebuild(Collection<String> logins) {
+        int size = logins.size() + (pending == null ? 0 : pending.size());
+        Bits bits = new Bits(Math.max(expectedLogins, size * 2), falsePositiveRate);
+        for (String login : logins) {
+            bits.add(login);
+        }
+        if (pending != null) {
+            for (String login : pending) {
+                bits.add(login);
+            }
+        }
+        current = bits;
+        pending = null;
+    }
+
+    /**
+     * Abandona una reconstrucción fallida; se mantiene el filtro anterior.
+     */
+    synchronized void abortRebuild() {
+        pending = null;
+    }
+
+    /**
+     * @return {@code true} si el filtro se ha cargado y está descartando
+     * logins.
+     */
+    public boolean isLoaded() {
+        return current != null;
+    }
+
+    /**
+     * @return número de consultas de logins que no estaban en el filtro.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Array de bits del filtro. Las inserciones son atómicas, por lo que admite
+     * lecturas y escrituras concurrentes sin bloqueo.
+     */
+    private static class Bits {
+
+        private final AtomicLongArray words;
+        private final long numBits;
+        private final int numHashes;
+
+        Bits(int expected, double falsePositiveRate) {
+            double ln2 = Math.log(2);
+            long bits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+            int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+            this.words = new AtomicLongArray(wordCount);
+            this.numBits = wordCount * 64L;
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / expected * ln2));
+        }
+
+        void add(String login) {
+            long hash = hash(login);
+            long h1 = mix(hash);
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                do {
+                    word = words.get(index);
+                    if ((word & mask) != 0) {
+                        break;
+                    }
+                } while (!words.compareAndSet(index, word, word | mask));
+            }
+        }
+
+        boolean mightContain(String login) {
+            long hash = hash(login);
+            long h1 = mix(hash);
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * FNV-1a de 64 bits sobre los bytes UTF-8 del login.
+         */
+        private static long hash(String login) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : login.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        /**
+         * Mezcla final de MurmurHash3 para repartir los bits del hash.
+         */
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package dbserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Cálculo y verificación de hashes de contraseñas con PBKDF2.
+ *
+ * <p>
+ * Los hashes usan el formato de passlib que emplea Odoo en
+ * {@code res_users.password}: {@code $pbkdf2-sha512$iteraciones$sal$hash},
+ * con sal y hash en el base64 adaptado de passlib. También verifica las
+ * variantes {@code pbkdf2-sha256} y {@code pbkdf2} (SHA-1), y las contraseñas
+ * antiguas guardadas en claro, que se marcan para recalcular.
+ * </p>
+ *
+ * <p>
+ * El trabajo se hace en un ejecutor propio con tantos hilos como núcleos
+ * ({@code db.passwordHashThreads}) y una cola acotada
+ * ({@code db.passwordHashQueue}). Cuando la cola está llena las tareas se
+ * rechazan en lugar de esperar, y el futuro devuelto falla con
+ * {@link RejectedExecutionException}.
+ * </p>
+ *
+ * <p>
+ * El número de iteraciones de los hashes nuevos se ajusta para que cada uno
+ * tarde unos {@code db.passwordHashTarget} milisegundos: se calibra al crear la
+ * instancia y se corrige con el tiempo medido en cada cálculo, sin salir de
+ * {@code db.passwordHashMinIterations} y
+ * {@code db.passwordHashMaxIterations}.
+ * </p>
+ *
+ * @author Urko
+ */
+public class PasswordHasher {
+
+    /**
+     * Logger para registrar eventos y errores de la clase.
+     */
+    private static final Logger LOGGER = Logger.getLogger(PasswordHasher.class.getName());
+
+    /**
+     * Prefijo de los hashes que genera esta clase.
+     */
+    private static final String PREFIX = "$pbkdf2-sha512$";
+
+    /**
+     * Bytes de sal y de hash de los hashes nuevos.
+     */
+    private static final int SALT_SIZE = 16;
+    private static final int HASH_SIZE = 64;
+
+    /**
+     * Iteraciones usadas para la calibración inicial.
+     */
+    private static final int CALIBRATION_ITERATIONS = 10000;
+
+    /**
+     * Peso de cada medida en la media móvil del coste por iteración.
+     */
+    private static final double SMOOTHING = 0.05;
+
+    /**
+     * Generador de sales.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Numeración de los hilos del ejecutor.
+     */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Ejecutor de los cálculos.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Duración objetivo de un cálculo, en nanosegundos.
+     */
+    private final long targetNanos;
+
+    /**
+     * Límites de iteraciones.
+     */
+    private final int minIterations;
+    private final int maxIterations;
+
+    /**
+     * Coste medio de una iteración en nanosegundos y las iteraciones que
+     * corresponden al objetivo. Las actualizaciones concurrentes pueden perder
+     * alguna medida, lo que no afecta al ajuste.
+     */
+    private volatile double nanosPerIteration;
+    private volatile int iterations;
+
+    /**
+     * Contadores de verificaciones, rechazos por cola llena y hashes
+     * calculados.
+     */
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder hashed = new LongAdder();
+
+    /**
+     * Crea el calculador con la configuración del archivo de propiedades.
+     */
+    public PasswordHasher() {
+        this(ServerConfig.getInt("db.passwordHashThreads", 0),
+                ServerConfig.getInt("db.passwordHashQueue", 1024),
+                ServerConfig.getLong("db.passwordHashTarget", 25),
+                ServerConfig.getInt("db.passwordHashMinIterations", 10000),
+                ServerConfig.getInt("db.passwordHashMaxIterations", 1000000));
+    }
+
+    /**
+     * Crea el calculador y calibra el número de iteraciones.
+     *
+     * @param threads hilos del ejecutor; {@code 0} usa el número de núcleos.
+     * @param queueSize tamaño de la cola de tareas pendientes.
+     * @param target duración objetivo de un cálculo, en milisegundos.
+     * @param minIterations iteraciones mínimas de un hash nuevo.
+     * @param maxIterations iteraciones máximas de un hash nuevo.
+     */
+    public PasswordHasher(int threads, int queueSize, long target, int minIterations, int maxIterations) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, target));
+        this.minIterations = Math.max(1, minIterations);
+        this.maxIterations = Math.max(this.minIterations, maxIterations);
+        calibrate();
+    }
+
+    /**
+     * Verifica una contraseña contra el valor guardado en la base de datos.
+     *
+     * @param password contraseña recibida.
+     * @param stored valor de {@code res_users.password}.
+     * @return futuro con el resultado; falla con
+     * {@link RejectedExecutionException} si el ejecutor está saturado.
+     */
+    public CompletableFuture<Boolean> verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!stored.startsWith("$pbkdf2")) {
+            // Contraseña antigua en claro: no hay nada que calcular
+            return CompletableFuture.completedFuture(MessageDigest.isEqual(
+                    stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8)));
+        }
+        return submit(() -> {
+            verified.increment();
+            return verifyHash(password, stored);
+        });
+    }
+
+    /**
+     * Calcula el hash de una contraseña con el número de iteraciones actual.
+     *
+     * @param password contraseña en claro.
+     * @return futuro con el hash; falla con {@link RejectedExecutionException}
+     * si el ejecutor está saturado.
+     */
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> {
+            hashed.increment();
+            byte[] salt = new byte[SALT_SIZE];
+            RANDOM.nextBytes(salt);
+            int rounds = iterations;
+            long start = System.nanoTime();
+            byte[] hash = pbkdf2("PBKDF2WithHmacSHA512", password, salt, rounds, HASH_SIZE);
+            adjust((double) (System.nanoTime() - start) / rounds);
+            return PREFIX + rounds + "$" + encode(salt) + "$" + encode(hash);
+        });
+    }
+
+    /**
+     * Indica si el valor guardado debe recalcularse tras un inicio de sesión
+     * correcto: contraseñas en claro, formatos más débiles o hashes con menos
+     * de la mitad de las iteraciones actuales.
+     *
+     * @param stored valor de {@code res_users.password}.
+     * @return {@code true} si conviene recalcularlo.
+     */
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return Integer.parseInt(parts[2]) < Math.max(minIterations, iterations / 2);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException event) {
+            return true;
+        }
+    }
+
+    /**
+     * @return iteraciones que se usan para los hashes nuevos.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return número de verificaciones de hashes realizadas.
+     */
+    public long getVerifiedCount() {
+        return verified.sum();
+    }
+
+    /**
+     * @return número de hashes nuevos calculados.
+     */
+    public long getHashedCount() {
+        return hashed.sum();
+    }
+
+    /**
+     * @return número de tareas rechazadas por tener la cola llena.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return número de tareas en cola.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Tarea de cálculo que puede fallar.
+     *
+     * @param <T> tipo del resultado.
+     */
+    private interface Task<T> {
+
+        T call() throws GeneralSecurityException;
+    }
+
+    /**
+     * Envía una tarea al ejecutor.
+     *
+     * @param <T> tipo del resultado.
+     * @param task la tarea.
+     * @return futuro con el resultado.
+     */
+    private <T> CompletableFuture<T> submit(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (GeneralSecurityException | RuntimeException event) {
+                    future.completeExceptionally(event);
+                }
+            });
+        } catch (RejectedExecutionException event) {
+            rejected.increment();
+            future.completeExceptionally(event);
+        }
+        return future;
+    }
+
+    /**
+     * Verifica una contraseña contra un hash PBKDF2 de passlib.
+     *
+     * @param password contraseña recibida.
+     * @param stored hash guardado.
+     * @return {@code true} si coinciden.
+     * @throws GeneralSecurityException si el algoritmo no está disponible.
+     */
+    private boolean verifyHash(String password, String stored) throws GeneralSecurityException {
+        String[] parts = stored.split("\\$");
+        if (parts.length != 5) {
+            LOGGER.log(Level.WARNING, "Formato de contraseña no reconocido: {0}", parts.length > 1 ? parts[1] : "");
+            return false;
+        }
+        String algorithm;
+        switch (parts[1]) {
+            case "pbkdf2-sha512":
+                algorithm = "PBKDF2WithHmacSHA512";
+                break;
+            case "pbkdf2-sha256":
+                algorithm = "PBKDF2WithHmacSHA256";
+                break;
+            case "pbkdf2":
+                algorithm = "PBKDF2WithHmacSHA1";
+                break;
+            default:
+                LOGGER.log(Level.WARNING, "Formato de contraseña no reconocido: {0}", parts[1]);
+                return false;
+        }
+        try {
+            int rounds = Integer.parseInt(parts[2]);
+            byte[] salt = decode(parts[3]);
+            byte[] expected = decode(parts[4]);
+            long start = System.nanoTime();
+            byte[] actual = pbkdf2(algorithm, password, salt, rounds, expected.length);
+            if (PREFIX.equals("$" + parts[1] + "$")) {
+                adjust((double) (System.nanoTime() - start) / rounds);
+            }
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException event) {
+            LOGGER.log(Level.WARNING, "Hash de contraseña mal formado: {0}", event.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Calcula PBKDF2.
+     *
+     * @param algorithm nombre JCA del algoritmo.
+     * @param password contraseña en claro.
+     * @param salt sal.
+     * @param rounds iteraciones.
+     * @param size bytes del resultado.
+     * @return el hash.
+     * @throws GeneralSecurityException si el algoritmo no está disponible.
+     */
+    private byte[] pbkdf2(String algorithm, String password, byte[] salt, int rounds, int size) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, size * 8);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Incorpora una medida del coste por iteración y recalcula las
+     * iteraciones de los hashes nuevos.
+     *
+     * @param sample nanosegundos por iteración medidos.
+     */
+    private void adjust(double sample) {
+        double average = nanosPerIteration + SMOOTHING * (sample - nanosPerIteration);
+        nanosPerIteration = average;
+        long rounds = Math.round(targetNanos / average / 1000) * 1000;
+        iterations = (int) Math.max(minIterations, Math.min(maxIterations, rounds));
+    }
+
+    /**
+     * Mide el coste de una iteración para fijar las iteraciones iniciales. Se
+     * toma la mejor de varias medidas para descontar el calentamiento.
+     */
+    private void calibrate() {
+        iterations = minIterations;
+        try {
+            byte[] salt = new byte[SALT_SIZE];
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                pbkdf2("PBKDF2WithHmacSHA512", "calibracion", salt, CALIBRATION_ITERATIONS, HASH_SIZE);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            nanosPerIteration = (double) best / CALIBRATION_ITERATIONS;
+            adjust(nanosPerIteration);
+            LOGGER.log(Level.INFO, "Hash de contraseñas calibrado a {0} iteraciones.", iterations);
+        } catch (GeneralSecurityException event) {
+            LOGGER.log(Level.SEVERE, "PBKDF2 no está disponible: {0}", event.getMessage());
+        }
+    }
+
+    /**
+     * Codifica en el base64 de passlib: sin relleno y con {@code .} en lugar
+     * de {@code +}.
+     */
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().withoutPadding().encodeToString(bytes).replace('+', '.');
+    }
+
+    /**
+     * Decodifica el base64 de passlib.
+     */
+    private static byte[] decode(String text) {
+        return Base64.getDecoder().decode(text.replace('.', '+'));
+    }
+}
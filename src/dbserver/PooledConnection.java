@@ -0,0 +1,118 @@
+package dbserver;
+
+import java.sql.Connection;
+
+/**
+ * Conexión gestionada por {@link PostgresConnectionPool} junto con los datos
+ * que el pool necesita para decidir cuándo retirarla.
+ *
+ * @author Urko
+ */
+class PooledConnection {
+
+    /**
+     * Conexión física a la base de datos.
+     */
+    private final Connection connection;
+
+    /**
+     * Sentencias preparadas reutilizables de esta conexión.
+     */
+    private final StatementCache statementCache;
+
+    /**
+     * Instante de creación de la conexión, en milisegundos.
+     */
+    private final long createdAt;
+
+    /**
+     * Instante en que la conexión volvió al pool por última vez, en
+     * milisegundos.
+     */
+    private volatile long lastUsedAt;
+
+    /**
+     * Instante de la última comprobación de validez, en milisegundos.
+     */
+    private volatile long lastValidatedAt;
+
+    /**
+     * Crea el envoltorio de una conexión recién abierta.
+     *
+     * @param connection la conexión física.
+     * @param statementCacheSize número máximo de sentencias preparadas que se
+     * mantienen abiertas.
+     */
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+        this.lastValidatedAt = createdAt;
+    }
+
+    /**
+     * @return la conexión física.
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return la caché de sentencias preparadas de la conexión.
+     */
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Marca la conexión como usada en este momento.
+     */
+    void touch() {
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Marca la conexión como validada en este momento.
+     */
+    void markValidated() {
+        lastValidatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Indica si la conexión debe validarse antes de usarse, porque no se ha
+     * usado ni comprobado en el tiempo indicado.
+     *
+     * @param threshold tiempo sin actividad en milisegundos a partir del cual
+     * se valida; {@code 0} valida siempre.
+     * @param now instante actual en milisegundos.
+     * @return {@code true} si la conexión debe validarse.
+     */
+    boolean needsValidation(long threshold, long now) {
+        return now - Math.max(lastUsedAt, lastValidatedAt) >= threshold;
+    }
+
+    /**
+     * Indica si la conexión ha superado su tiempo de vida máximo.
+     *
+     * @param maxLifetime tiempo de vida máximo en milisegundos; {@code 0}
+     * desactiva el límite.
+     * @param now instante actual en milisegundos.
+     * @return {@code true} si la conexión debe retirarse.
+     */
+    boolean isExpired(long maxLifetime, long now) {
+        return maxLifetime > 0 && now - createdAt >= maxLifetime;
+    }
+
+    /**
+     * Indica si la conexión lleva libre más tiempo del permitido.
+     *
+     * @param idleTimeout tiempo de inactividad máximo en milisegundos;
+     * {@code 0} desactiva el límite.
+     * @param now instante actual en milisegundos.
+     * @return {@code true} si la conexión lleva demasiado tiempo sin usarse.
+     */
+    boolean isIdleFor(long idleTimeout, long now) {
+        return idleTimeout > 0 && now - lastUsedAt >= idleTimeout;
+    }
+}
@@ -2,12 +2,22 @@ package dbserver;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.MissingResourceException;
-import java.util.ResourceBundle;
-import java.util.Stack;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import utilidades.Closeable;
 
 /**
@@ -19,14 +29,40 @@ import utilidades.Closeable;
  * garantizar el cierre controlado de todas las conexiones activas.
  *
  * <p>
- * El pool se configura mediante un archivo de propiedades y un parámetro de
- * tamaño, creando un número inicial de conexiones que luego se reutilizan. Si
- * no hay conexiones disponibles al momento de solicitar una, el método
- * {@link #getConnection()} devolverá {@code null}.
+ * El pool es elástico: mantiene al menos {@code minSize} conexiones abiertas,
+ * creadas en segundo plano, y abre conexiones nuevas bajo demanda hasta
+ * {@code maxSize}. Un hilo de mantenimiento cierra las conexiones que llevan
+ * más de {@code db.poolIdleTimeout} milisegundos libres (sin bajar del mínimo)
+ * y las que superan {@code db.poolMaxLifetime} milisegundos de vida.
  *
  * <p>
- * Esta implementación es segura para hilos, permitiendo acceso concurrente a
- * las conexiones del pool.
+ * La validez de las conexiones se comprueba dentro del pool y no en cada
+ * préstamo: solo se valida al prestarla una conexión que lleva más de
+ * {@code db.poolValidationIdle} milisegundos sin usarse ni comprobarse, y el
+ * hilo de mantenimiento valida periódicamente las conexiones libres para
+ * mantenerlas vivas. Las conexiones rotas se cierran y se sustituyen sin que
+ * el llamante lo note.
+ *
+ * <p>
+ * Cada conexión mantiene su propia caché de sentencias preparadas, de hasta
+ * {@code db.statementCacheSize} sentencias, accesible mediante
+ * {@link #prepareStatement(Connection, String)}.
+ *
+ * <p>
+ * Si se han alcanzado {@code maxSize} conexiones prestadas, el método
+ * {@link #getConnection()} espera como máximo {@code db.poolAcquireTimeout}
+ * milisegundos a que otro hilo libere una y, si el plazo vence, devuelve
+ * {@code null}.
+ *
+ * <p>
+ * Esta implementación es segura para hilos. Los hilos en espera se atienden en
+ * orden de llegada (FIFO) y, cuando hay conexiones libres y nadie esperando, la
+ * obtención y liberación no utilizan bloqueos.
+ *
+ * <p>
+ * El tiempo de cada préstamo, las conexiones en uso y las esperas agotadas se
+ * publican en {@link MetricsRegistry} con el prefijo {@code pool_} y el nombre
+ * del pool como etiqueta {@code pool}.
  *
  * @author Urko
  */
@@ -38,130 +74,601 @@ public class PostgresConnectionPool implements Closeable {
     private static final Logger LOGGER = Logger.getLogger(PostgresConnectionPool.class.getName());
 
     /**
-     * Almacena las conexiones disponibles en el pool.
+     * Valores por defecto, en milisegundos, de los parámetros opcionales.
+     */
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 5000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 600000;
+    private static final long DEFAULT_MAX_LIFETIME = 1800000;
+    private static final long DEFAULT_HOUSEKEEPING_INTERVAL = 30000;
+    private static final long DEFAULT_VALIDATION_IDLE = 5000;
+
+    /**
+     * Tiempo máximo por defecto, en segundos, de una comprobación de validez.
+     */
+    private static final int DEFAULT_VALIDATION_TIMEOUT = 2;
+
+    /**
+     * Número por defecto de sentencias preparadas en caché por conexión.
+     */
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 16;
+
+    /**
+     * Almacena las conexiones disponibles en el pool. Se usa como pila para
+     * reutilizar primero las conexiones más recientes.
+     */
+    private final Deque<PooledConnection> connectionPool = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Conexiones prestadas en este momento, indexadas por la conexión física.
+     */
+    private final Map<Connection, PooledConnection> borrowed = new ConcurrentHashMap<>();
+
+    /**
+     * Número total de conexiones abiertas, libres o prestadas.
+     */
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    /**
+     * Permisos de préstamo, uno por conexión que puede llegar a existir. Es
+     * justo para que los hilos en espera reciban las conexiones en orden de
+     * llegada.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Hilo de mantenimiento que rellena el mínimo y retira conexiones.
      */
-    private Stack<Connection> connectionPool = new Stack<>();
+    private final ScheduledExecutorService housekeeper;
+
+    /**
+     * Indica si el pool ha sido cerrado.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Contadores de espera: número de esperas, tiempo total esperado en
+     * nanosegundos y número de esperas que agotaron el plazo.
+     */
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    /**
+     * Contadores de conexiones creadas y retiradas.
+     */
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+
+    /**
+     * Contador de conexiones rotas detectadas al validarlas.
+     */
+    private final LongAdder brokenCount = new LongAdder();
+
+    /**
+     * Tiempo que tarda cada préstamo, en microsegundos, esperas incluidas.
+     */
+    private final Histogram borrowWait;
+
+    /**
+     * Límites de tamaño del pool.
+     */
+    private final int minSize;
+    private final int maxSize;
+
+    /**
+     * Nombre del pool, usado en métricas y nombres de hilos.
+     */
+    private final String name;
 
     /**
      * Variables de configuración de conexión a la base de datos.
      */
-    private String url;
-    private String user;
-    private String password;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long acquireTimeout;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final long validationIdle;
+    private final int validationTimeout;
+    private final int statementCacheSize;
 
     /**
-     * Crea un pool de conexiones y carga las propiedades de conexión desde un
-     * archivo de configuración.
+     * Crea un pool de tamaño fijo.
+     *
+     * @param poolSize Número de conexiones del pool.
+     */
+    public PostgresConnectionPool(int poolSize) {
+        this(poolSize, poolSize);
+    }
+
+    /**
+     * Crea el pool elástico de la base de datos principal, con las propiedades
+     * de conexión {@code db.url}, {@code db.user} y {@code db.password} del
+     * archivo de configuración {@code dbserver.dbConnection}, que pueden
+     * sustituirse con propiedades del sistema.
+     *
+     * @param minSize Número mínimo de conexiones abiertas.
+     * @param maxSize Número máximo de conexiones abiertas.
+     */
+    public PostgresConnectionPool(int minSize, int maxSize) {
+        this("primary", minSize, maxSize, ServerConfig.getString("db.url", null),
+                ServerConfig.getString("db.user", null), ServerConfig.getString("db.password", null));
+    }
+
+    /**
+     * Crea un pool elástico hacia la base de datos indicada.
      *
      * <p>
-     * Crea el número de conexiones inicial especificado en {@code poolSize}. Si
-     * el pool no puede conectar una instancia, se registra un mensaje de
-     * advertencia.
+     * Las {@code minSize} conexiones iniciales se abren en segundo plano, de
+     * modo que el constructor no espera a la base de datos. Si no se pueden
+     * abrir todas, se registra un aviso con el número de conexiones creadas y
+     * se reintenta en la siguiente pasada de mantenimiento. Si faltan los
+     * datos de conexión, se registra un error severo.
      *
-     * @param poolSize Número de conexiones a crear en el pool.
+     * @param name Nombre del pool, que etiqueta sus métricas.
+     * @param minSize Número mínimo de conexiones abiertas.
+     * @param maxSize Número máximo de conexiones abiertas.
+     * @param url URL JDBC de la base de datos.
+     * @param user Usuario de la base de datos.
+     * @param password Contraseña del usuario.
      */
-    public PostgresConnectionPool(int poolSize) {
-        // Cargar los datos de conexión desde el archivo de propiedades
-        loadProperties();
+    public PostgresConnectionPool(String name, int minSize, int maxSize, String url, String user, String password) {
+        this.name = name;
+        this.minSize = Math.max(0, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        permits = new Semaphore(this.maxSize, true);
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        if (url == null || user == null || password == null) {
+            LOGGER.log(Level.SEVERE, "Los parámetros de conexión del pool {0} no se encuentran.", name);
+        }
+        acquireTimeout = ServerConfig.getLong("db.poolAcquireTimeout", DEFAULT_ACQUIRE_TIMEOUT);
+        idleTimeout = ServerConfig.getLong("db.poolIdleTimeout", DEFAULT_IDLE_TIMEOUT);
+        maxLifetime = ServerConfig.getLong("db.poolMaxLifetime", DEFAULT_MAX_LIFETIME);
+        validationIdle = ServerConfig.getLong("db.poolValidationIdle", DEFAULT_VALIDATION_IDLE);
+        validationTimeout = ServerConfig.getInt("db.poolValidationTimeout", DEFAULT_VALIDATION_TIMEOUT);
+        statementCacheSize = ServerConfig.getInt("db.statementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE);
+        long housekeepingInterval = ServerConfig.getLong("db.poolHousekeepingInterval", DEFAULT_HOUSEKEEPING_INTERVAL);
 
         try {
             // Cargar el driver de PostgreSQL
             Class.forName("org.postgresql.Driver");
-
-            // Crear conexiones según poolSize
-            for (int i = 0; i < poolSize; i++) {
-                Connection conn = DriverManager.getConnection(url, user, password);
-                if (conn != null) {
-                    LOGGER.log(Level.INFO, "Conexión {0} creada y añadida al pool.", i + 1);
-                    connectionPool.push(conn);
-                } else {
-                    LOGGER.log(Level.WARNING, "No se ha podido crear la conexión {0}", i + 1);
-                }
-            }
-        } catch (SQLException event) {
-            LOGGER.warning("Error de conexión a la base de datos.");
         } catch (ClassNotFoundException event) {
             LOGGER.warning("Driver no encontrado.");
         }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-housekeeper-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.execute(() -> {
+            fillToMinimum();
+            int created = totalConnections.get();
+            if (created < this.minSize) {
+                LOGGER.log(Level.WARNING, "Pool {0} iniciado con {1} de {2} conexiones mínimas.", new Object[]{name, created, this.minSize});
+            } else {
+                LOGGER.log(Level.INFO, "Pool {0} iniciado con {1} conexiones (máximo {2}).", new Object[]{name, created, this.maxSize});
+            }
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingInterval, housekeepingInterval, TimeUnit.MILLISECONDS);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        borrowWait = metrics.histogram("pool_borrow_wait_us", "pool", name);
+        metrics.gauge("pool_in_use", "pool", name, this::getActiveConnections);
+        metrics.gauge("pool_open", "pool", name, this::getTotalConnections);
+        metrics.gauge("pool_available", "pool", name, this::getAvailableConnections);
+        metrics.gauge("pool_waits_total", "pool", name, this::getWaitCount);
+        metrics.gauge("pool_exhausted_total", "pool", name, this::getTimeoutCount);
     }
 
     /**
-     * Carga las propiedades de conexión desde el archivo de configuración
-     * {@code dbserver.dbConnection}.
+     * Abre en el hilo que llama las conexiones que falten hasta el mínimo y
+     * valida las libres, para que los primeros préstamos no esperen a la base
+     * de datos. Las rotas se retiran y se reponen en el siguiente
+     * mantenimiento.
      *
-     * <p>
-     * Asigna a las variables de instancia los valores de URL, usuario y
-     * contraseña. Si el archivo o propiedades no se encuentran, se registra un
-     * error severo.
+     * @return Número de conexiones abiertas.
      */
-    private void loadProperties() {
-        try {
-            ResourceBundle bundle = ResourceBundle.getBundle("dbserver.dbConnection");
-            url = bundle.getString("db.url");
-            user = bundle.getString("db.user");
-            password = bundle.getString("db.password");
-        } catch (MissingResourceException event) {
-            LOGGER.log(Level.SEVERE, "Los parámetros de conexión no se encuentran {0}", event.getMessage());
+    public int prestart() {
+        fillToMinimum();
+        for (PooledConnection pooled : connectionPool.toArray(new PooledConnection[0])) {
+            keepAlive(pooled);
         }
+        return totalConnections.get();
+    }
+
+    /**
+     * @return el nombre del pool.
+     */
+    public String getName() {
+        return name;
     }
 
     /**
      * Obtiene una conexión del pool de conexiones.
      *
      * <p>
-     * Este método es sincronizado para garantizar un acceso seguro en entornos
-     * multihilo. Si no hay conexiones disponibles, devuelve {@code null} y
-     * registra un mensaje informativo.
+     * Si hay capacidad libre y ningún hilo esperando, la obtiene sin bloquear,
+     * reutilizando una conexión libre o abriendo una nueva. En caso contrario
+     * espera su turno, como máximo {@code db.poolAcquireTimeout} milisegundos.
+     * Si el plazo vence, el hilo es interrumpido, el pool está cerrado o no se
+     * puede abrir la conexión, devuelve {@code null}.
      *
-     * @return una conexión disponible o {@code null} si no hay conexiones en el
-     * pool.
+     * @return una conexión disponible o {@code null} si no se ha podido obtener
+     * ninguna a tiempo.
      * @throws SQLException si ocurre un error al obtener la conexión.
      */
-    public synchronized Connection getConnection() throws SQLException {
-        if (connectionPool.isEmpty()) {
-            LOGGER.info("No hay conexiones disponibles.");
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return acquire();
+        } finally {
+            borrowWait.recordSince(start);
+        }
+    }
+
+    /**
+     * Obtiene una conexión sin bloquear si hay capacidad libre o esperando su
+     * turno en caso contrario.
+     *
+     * @return una conexión disponible o {@code null} si no se ha podido obtener
+     * ninguna a tiempo.
+     */
+    private Connection acquire() {
+        if (closed) {
             return null;
-        } else {
-            LOGGER.log(Level.INFO, "Conexiones disponibles: {0}", connectionPool.size());
-            return connectionPool.pop();
         }
+        // Camino rápido: hay permisos y nadie delante en la cola
+        if (!permits.hasQueuedThreads() && permits.tryAcquire()) {
+            return borrow();
+        }
+
+        long start = System.nanoTime();
+        waitCount.increment();
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                LOGGER.log(Level.WARNING, "Tiempo de espera agotado al obtener una conexión ({0} ms).", acquireTimeout);
+                return null;
+            }
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+        return borrow();
+    }
+
+    /**
+     * Entrega una conexión tras haber obtenido su permiso: la más reciente de
+     * las libres o, si no hay ninguna, una nueva. Las libres caducadas, o que
+     * llevan tiempo sin usarse y no superan la validación, se descartan.
+     *
+     * @return la conexión, o {@code null} si no se ha podido abrir o el pool
+     * se ha cerrado entretanto. En ese caso el permiso se devuelve.
+     */
+    private Connection borrow() {
+        long now = System.currentTimeMillis();
+        PooledConnection pooled;
+        while ((pooled = connectionPool.poll()) != null) {
+            if (pooled.isExpired(maxLifetime, now)
+                    || (pooled.needsValidation(validationIdle, now) && !validate(pooled))) {
+                retire(pooled);
+            } else {
+                break;
+            }
+        }
+        if (pooled == null) {
+            pooled = createConnection();
+        }
+        if (pooled == null || closed) {
+            if (pooled != null) {
+                retire(pooled);
+            }
+            permits.release();
+            return null;
+        }
+        borrowed.put(pooled.getConnection(), pooled);
+        return pooled.getConnection();
     }
 
     /**
      * Libera una conexión devolviéndola al pool.
      *
      * <p>
-     * Este método es sincronizado y permite que las conexiones se liberen
-     * correctamente para evitar fugas de conexión y maximizar la reutilización.
+     * La conexión se entrega al primer hilo en espera, si lo hay. Si ha
+     * superado su tiempo de vida máximo o el pool está cerrado, se cierra en su
+     * lugar.
      *
      * @param connection la conexión a devolver al pool.
      */
-    public synchronized void releaseConnection(Connection connection) {
-        connectionPool.push(connection);
-        LOGGER.log(Level.INFO, "Conexión liberada al pool. Quedan: {0}", connectionPool.size());
+    public void releaseConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        PooledConnection pooled = borrowed.remove(connection);
+        if (pooled == null) {
+            LOGGER.warning("Se ha intentado liberar una conexión que no pertenece al pool.");
+            return;
+        }
+        if (closed || pooled.isExpired(maxLifetime, System.currentTimeMillis())) {
+            retire(pooled);
+        } else {
+            pooled.touch();
+            connectionPool.push(pooled);
+        }
+        permits.release();
     }
 
     /**
-     * Cierra todas las conexiones del pool.
+     * Devuelve una sentencia preparada de la caché de una conexión prestada,
+     * creándola si aún no existe.
      *
      * <p>
-     * Este método es sincronizado y cierra todas las conexiones aún abiertas en
-     * el pool, garantizando que todos los recursos se liberen adecuadamente.
-     * Las excepciones de cierre se registran en el log.
+     * La sentencia pertenece a la conexión: el llamante puede cerrar sus
+     * {@code ResultSet} pero no debe cerrar la sentencia.
+     *
+     * @param connection conexión prestada por este pool.
+     * @param sql texto de la consulta.
+     * @return la sentencia preparada.
+     * @throws SQLException si la conexión no pertenece al pool o no se puede
+     * preparar la sentencia.
      */
-    @Override
-    public synchronized void close() {
-        while (!connectionPool.isEmpty()) {
-            Connection connection = connectionPool.pop();
+    public PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        PooledConnection pooled = borrowed.get(connection);
+        if (pooled == null) {
+            throw new SQLException("La conexión no está prestada por el pool.");
+        }
+        return pooled.getStatementCache().prepare(sql);
+    }
+
+    /**
+     * Abre una conexión física nueva y la contabiliza.
+     *
+     * @return la conexión envuelta, o {@code null} si no se ha podido abrir.
+     */
+    private PooledConnection createConnection() {
+        totalConnections.incrementAndGet();
+        try {
+            Connection conn = DriverManager.getConnection(url, user, password);
+            if (conn != null) {
+                createdCount.increment();
+                return new PooledConnection(conn, statementCacheSize);
+            }
+            LOGGER.warning("No se ha podido crear la conexión.");
+        } catch (SQLException event) {
+            LOGGER.log(Level.WARNING, "Error de conexión a la base de datos: {0}", event.getMessage());
+        }
+        totalConnections.decrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cierra una conexión y la descuenta del total del pool.
+     *
+     * @param pooled la conexión a retirar.
+     */
+    private void retire(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        evictedCount.increment();
+        pooled.getStatementCache().clear();
+        closeQuietly(pooled.getConnection());
+    }
+
+    /**
+     * Comprueba contra la base de datos que una conexión sigue viva.
+     *
+     * @param pooled la conexión a comprobar.
+     * @return {@code true} si la conexión es válida.
+     */
+    private boolean validate(PooledConnection pooled) {
+        try {
+            if (pooled.getConnection().isValid(validationTimeout)) {
+                pooled.markValidated();
+                return true;
+            }
+        } catch (SQLException event) {
+            LOGGER.log(Level.FINE, "Error al validar la conexión: {0}", event.getMessage());
+        }
+        brokenCount.increment();
+        LOGGER.warning("Conexión rota detectada, se sustituye.");
+        return false;
+    }
+
+    /**
+     * Abre conexiones hasta alcanzar el mínimo configurado. Cada conexión
+     * nueva ocupa un permiso mientras se abre para no superar el máximo.
+     */
+    private void fillToMinimum() {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
             try {
-                if (connection != null && !connection.isClosed()) {
-                    connection.close();
-                    LOGGER.info("Conexión cerrada.");
+                PooledConnection pooled = createConnection();
+                if (pooled == null) {
+                    return;
+                }
+                connectionPool.push(pooled);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Pasada de mantenimiento: retira las conexiones libres que han caducado o
+     * llevan demasiado tiempo sin usarse, valida las demás para mantenerlas
+     * vivas, sustituye las rotas y repone el mínimo.
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (PooledConnection pooled : connectionPool) {
+                boolean expired = pooled.isExpired(maxLifetime, now);
+                boolean idle = pooled.isIdleFor(idleTimeout, now) && totalConnections.get() > minSize;
+                // remove() solo tiene éxito si nadie la ha tomado entretanto
+                if ((expired || idle) && connectionPool.remove(pooled)) {
+                    retire(pooled);
+                } else if (pooled.needsValidation(validationIdle, now)) {
+                    keepAlive(pooled);
+                }
+            }
+            fillToMinimum();
+        } catch (RuntimeException event) {
+            LOGGER.log(Level.WARNING, "Error en el mantenimiento del pool: {0}", event.getMessage());
+        }
+    }
+
+    /**
+     * Valida una conexión libre desde el hilo de mantenimiento. La conexión se
+     * retira de la pila mientras se comprueba y ocupa un permiso, para que
+     * nadie la tome ni se supere el máximo; si el pool está ocupado se omite.
+     *
+     * @param pooled la conexión libre a comprobar.
+     */
+    private void keepAlive(PooledConnection pooled) {
+        if (!permits.tryAcquire()) {
+            return;
+        }
+        try {
+            if (connectionPool.remove(pooled)) {
+                if (validate(pooled) && !closed) {
+                    connectionPool.addLast(pooled);
+                } else {
+                    retire(pooled);
                 }
-            } catch (SQLException event) {
-                LOGGER.log(Level.WARNING, "Error al cerrar la conexión: {0}", event.getMessage());
             }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Devuelve el número de veces que un hilo ha tenido que esperar por una
+     * conexión.
+     *
+     * @return número de esperas.
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * Devuelve el tiempo total que los hilos han esperado por una conexión.
+     *
+     * @return tiempo de espera acumulado en milisegundos.
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    /**
+     * Devuelve el número de esperas que agotaron el plazo sin obtener conexión.
+     *
+     * @return número de esperas agotadas.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Devuelve el número de conexiones que aún pueden prestarse sin esperar.
+     *
+     * @return capacidad disponible.
+     */
+    public int getAvailableConnections() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Devuelve el número de conexiones abiertas que están libres.
+     *
+     * @return conexiones libres.
+     */
+    public int getIdleConnections() {
+        return connectionPool.size();
+    }
+
+    /**
+     * Devuelve el número de conexiones abiertas, libres o prestadas.
+     *
+     * @return conexiones abiertas.
+     */
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * Devuelve el número de conexiones prestadas en este momento.
+     *
+     * @return conexiones en uso.
+     */
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    /**
+     * Devuelve el número de conexiones físicas abiertas desde el arranque.
+     *
+     * @return conexiones creadas.
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Devuelve el número de conexiones cerradas por el pool desde el arranque.
+     *
+     * @return conexiones retiradas.
+     */
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * Devuelve el número de conexiones rotas detectadas y sustituidas.
+     *
+     * @return conexiones rotas.
+     */
+    public long getBrokenCount() {
+        return brokenCount.sum();
+    }
+
+    /**
+     * Cierra todas las conexiones del pool.
+     *
+     * <p>
+     * Detiene el hilo de mantenimiento y cierra todas las conexiones aún libres
+     * en el pool; las que están prestadas se cierran al devolverse. Las
+     * excepciones de cierre se registran en el log.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = connectionPool.poll()) != null) {
+            retire(pooled);
         }
         LOGGER.info("Todas las conexiones han sido cerradas.");
     }
+
+    /**
+     * Cierra una conexión registrando, sin propagar, cualquier error.
+     *
+     * @param connection la conexión a cerrar.
+     */
+    private void closeQuietly(Connection connection) {
+        try {
+            if (!connection.isClosed()) {
+                connection.close();
+                LOGGER.info("Conexión cerrada.");
+            }
+        } catch (SQLException event) {
+            LOGGER.log(Level.WARNING, "Error al cerrar la conexión: {0}", event.getMessage());
+        }
+    }
 }
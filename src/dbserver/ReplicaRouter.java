@@ -0,0 +1,273 @@
+package dbserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import metrics.MetricsRegistry;
+
+/**
+ * Reparte las lecturas entre los pools de las réplicas de la base de datos.
+ *
+ * <p>
+ * Cada lectura va a la réplica con menos peticiones en curso; los empates se
+ * resuelven empezando por una réplica distinta cada vez. Un hilo de
+ * mantenimiento consulta cada {@code checkInterval} milisegundos el retraso de
+ * replicación de cada réplica, y las que van más de {@code maxLag}
+ * milisegundos por detrás, o no responden, dejan de recibir lecturas hasta que
+ * se ponen al día. Hasta la primera comprobación ninguna réplica es válida.
+ * Si no queda ninguna réplica válida, {@link #acquire()} devuelve
+ * {@code null} y la lectura se hace en la base de datos principal.
+ * </p>
+ *
+ * <p>
+ * Las peticiones en curso y el retraso de cada réplica se publican en
+ * {@link MetricsRegistry} con el nombre de su pool como etiqueta
+ * {@code replica}.
+ * </p>
+ *
+ * @author Urko
+ */
+public class ReplicaRouter {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ReplicaRouter.class.getName());
+
+    /**
+     * Consulta del retraso de replicación, en milisegundos. Una réplica que ya
+     * ha aplicado todo lo recibido no tiene retraso aunque lleve tiempo sin
+     * escrituras, y una base de datos que no es réplica devuelve {@code 0}. Si
+     * la réplica no está recibiendo WAL de la principal, lo recibido deja de
+     * avanzar y no se puede saber cuánto le falta: devuelve {@code NULL}, que
+     * cuenta como retraso máximo.
+     */
+    private static final String SQL_LAG = "SELECT CASE WHEN pg_is_in_recovery() THEN CASE "
+            + "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN NULL "
+            + "WHEN pg_last_wal_receive_lsn() IS NOT DISTINCT FROM pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE (EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint END "
+            + "ELSE 0 END AS lag";
+
+    private final List<Replica> replicas;
+    private final long maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService monitor;
+
+    /**
+     * Lecturas hechas en la principal por no haber ninguna réplica válida.
+     */
+    private final LongAdder fallbacks = MetricsRegistry.getInstance().counter("replica_fallback_total");
+
+    /**
+     * Crea el repartidor y arranca la comprobación del retraso.
+     *
+     * @param pools Los pools de las réplicas.
+     * @param maxLag Retraso máximo, en milisegundos, para recibir lecturas.
+     * @param checkInterval Milisegundos entre comprobaciones del retraso, o
+     * {@code 0} para no comprobarlo y considerar válidas todas las réplicas.
+     */
+    public ReplicaRouter(List<PostgresConnectionPool> pools, long maxLag, long checkInterval) {
+        List<Replica> list = new ArrayList<>(pools.size());
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (PostgresConnectionPool pool : pools) {
+            Replica replica = new Replica(pool);
+            if (checkInterval <= 0) {
+                replica.lag = 0;
+            }
+            list.add(replica);
+            metrics.gauge("replica_outstanding", "replica", pool.getName(), replica.outstanding::get);
+            metrics.gauge("replica_lag_ms", "replica", pool.getName(), () -> replica.lag);
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.maxLag = maxLag;
+
+        if (checkInterval > 0 && !list.isEmpty()) {
+            monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-lag-monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            monitor.scheduleWithFixedDelay(this::checkLag, 0, checkInterval, TimeUnit.MILLISECONDS);
+        } else {
+            monitor = null;
+        }
+    }
+
+    /**
+     * Elige la réplica para una lectura y anota la petición en curso. Hay que
+     * llamar a {@link #release(Replica)} cuando termine.
+     *
+     * @return La réplica válida con menos peticiones en curso, o {@code null}
+     * si hay que leer de la principal.
+     */
+    public Replica acquire() {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        Replica best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            int outstanding = replica.outstanding.get();
+            if (replica.lag <= maxLag && outstanding < bestOutstanding) {
+                best = replica;
+                bestOutstanding = outstanding;
+            }
+        }
+        if (best == null) {
+            fallbacks.increment();
+            return null;
+        }
+        best.outstanding.incrementAndGet();
+        return best;
+    }
+
+    /**
+     * Anota el final de una lectura en una réplica.
+     *
+     * @param replica La réplica devuelta por {@link #acquire()}.
+     */
+    public void release(Replica replica) {
+        replica.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Anota una lectura que, tras intentarse en una réplica, se repite en la
+     * principal.
+     */
+    public void recordFallback() {
+        fallbacks.increment();
+    }
+
+    /**
+     * @return las réplicas, en el orden de configuración.
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return lecturas hechas en la principal en lugar de en una réplica.
+     */
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Detiene la comprobación del retraso y cierra los pools de las réplicas.
+     */
+    public void close() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    /**
+     * Consulta el retraso de todas las réplicas. Las que no responden quedan
+     * con retraso máximo.
+     */
+    private void checkLag() {
+        for (Replica replica : replicas) {
+            long lag;
+            try {
+                lag = queryLag(replica.pool);
+            } catch (SQLException event) {
+                LOGGER.log(Level.FINE, "Error al consultar el retraso de {0}: {1}",
+                        new Object[]{replica.getName(), event.getMessage()});
+                lag = Long.MAX_VALUE;
+            }
+            boolean wasValid = replica.lag <= maxLag;
+            replica.lag = lag;
+            if (wasValid && lag > maxLag) {
+                LOGGER.log(Level.WARNING, "La réplica {0} deja de recibir lecturas por su retraso.", replica.getName());
+            } else if (!wasValid && lag <= maxLag) {
+                LOGGER.log(Level.INFO, "La réplica {0} recibe lecturas.", replica.getName());
+            }
+        }
+    }
+
+    /**
+     * Consulta el retraso de replicación de un pool.
+     *
+     * @param pool El pool de la réplica.
+     * @return El retraso en milisegundos, o {@code Long.MAX_VALUE} si no hay
+     * conexión o la réplica no recibe WAL.
+     * @throws SQLException si falla la consulta.
+     */
+    private static long queryLag(PostgresConnectionPool pool) throws SQLException {
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            PreparedStatement stmt = pool.prepareStatement(conn, SQL_LAG);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return Long.MAX_VALUE;
+                }
+                long lag = rs.getLong("lag");
+                return rs.wasNull() ? Long.MAX_VALUE : Math.max(0, lag);
+            }
+        } finally {
+            pool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Una réplica: su pool, sus lecturas en curso y su último retraso medido.
+     */
+    public static final class Replica {
+
+        private final PostgresConnectionPool pool;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long lag = Long.MAX_VALUE;
+
+        private Replica(PostgresConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * @return el pool de la réplica.
+         */
+        public PostgresConnectionPool getPool() {
+            return pool;
+        }
+
+        /**
+         * @return el nombre del pool de la réplica.
+         */
+        public String getName() {
+            return pool.getName();
+        }
+
+        /**
+         * @return las lecturas en curso en la réplica.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return el último retraso medido, en milisegundos.
+         */
+        public long getLag() {
+            return lag;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package dbserver;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clase de utilidad para leer parámetros opcionales del archivo de
+ * configuración {@code dbserver.dbConnection}.
+ *
+ * <p>
+ * Si el archivo o la clave no existen, o el valor está mal formateado, se
+ * devuelve el valor por defecto indicado. Los valores mal formateados se
+ * registran en el log.
+ * </p>
+ *
+ * <p>
+ * Una propiedad del sistema con el mismo nombre ({@code -Dclave=valor})
+ * tiene prioridad sobre el archivo, lo que permite, por ejemplo, apuntar el
+ * servidor a otra base de datos en pruebas y benchmarks sin modificarlo.
+ * </p>
+ *
+ * @author Urko
+ */
+public final class ServerConfig {
+
+    /**
+     * Logger para registrar eventos y errores de la clase.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ServerConfig.class.getName());
+
+    /**
+     * Nombre del archivo de propiedades.
+     */
+    private static final String BUNDLE = "dbserver.dbConnection";
+
+    /**
+     * Constructor privado, la clase solo tiene métodos estáticos.
+     */
+    private ServerConfig() {
+    }
+
+    /**
+     * Obtiene el valor de una clave como texto.
+     *
+     * @param key clave a buscar.
+     * @param defaultValue valor devuelto si la clave no existe.
+     * @return el valor configurado, sin espacios en los extremos, o el valor
+     * por defecto.
+     */
+    public static String getString(String key, String defaultValue) {
+        String override = System.getProperty(key);
+        if (override != null) {
+            return override.trim();
+        }
+        try {
+            ResourceBundle bundle = ResourceBundle.getBundle(BUNDLE);
+            if (bundle.containsKey(key)) {
+                return bundle.getString(key).trim();
+            }
+        } catch (MissingResourceException event) {
+            LOGGER.log(Level.SEVERE, "El archivo de propiedades no se encuentra: {0}", event.getMessage());
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Obtiene el valor de una clave como entero.
+     *
+     * @param key clave a buscar.
+     * @param defaultValue valor devuelto si la clave no existe o es inválida.
+     * @return el valor configurado o el valor por defecto.
+     */
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * Obtiene el valor de una clave como entero largo.
+     *
+     * @param key clave a buscar.
+     * @param defaultValue valor devuelto si la clave no existe o es inválida.
+     * @return el valor configurado o el valor por defecto.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException event) {
+            LOGGER.log(Level.SEVERE, "El parámetro {0} es inválido o está mal formateado: {1}", new Object[]{key, value});
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Obtiene el valor de una clave como número decimal.
+     *
+     * @param key clave a buscar.
+     * @param defaultValue valor devuelto si la clave no existe o es inválida.
+     * @return el valor configurado o el valor por defecto.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException event) {
+            LOGGER.log(Level.SEVERE, "El parámetro {0} es inválido o está mal formateado: {1}", new Object[]{key, value});
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Obtiene el valor de una clave como booleano.
+     *
+     * @param key clave a buscar.
+     * @param defaultValue valor devuelto si la clave no existe.
+     * @return el valor configurado o el valor por defecto.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,218 @@
+package dbserver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Herramienta que mueve cada usuario al shard que le corresponde según el
+ * anillo actual, con el servidor en marcha.
+ *
+ * <p>
+ * Para añadir un shard se añade su URL al final de {@code db.shards}, se
+ * arranca el servidor con {@code db.shardMigrateFrom} igual al número de
+ * shards que había, se ejecuta esta herramienta y, al terminar, se quita
+ * {@code db.shardMigrateFrom}. Mientras tanto, {@link ShardedSignable} busca
+ * en el dueño anterior los usuarios que aún no se han movido.
+ * </p>
+ *
+ * <p>
+ * Cada shard se recorre por páginas de {@code batchSize} usuarios ordenadas
+ * por login. Los usuarios que pertenecen a otro shard se copian allí con el
+ * hash de su contraseña y, solo después, se borran del de origen, de modo que
+ * en ningún momento dejan de existir. Si la herramienta se interrumpe, basta
+ * con volver a ejecutarla: los usuarios ya copiados se reconocen como
+ * existentes y solo se borran del origen. Un usuario solo se borra del origen
+ * si se ha insertado en el destino o si, tras rechazarse como repetido, se
+ * comprueba allí que existe; ante cualquier otro error se queda en el origen
+ * y se reintenta en la siguiente ejecución.
+ * </p>
+ *
+ * <p>
+ * Uso: {@code java dbserver.ShardRebalancer [--dry-run] [--batch=N]}, con la
+ * misma configuración que el servidor. Con {@code --dry-run} solo cuenta los
+ * usuarios que se moverían.
+ * </p>
+ *
+ * @author Urko
+ */
+public class ShardRebalancer {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ShardRebalancer.class.getName());
+
+    /**
+     * Usuarios por página si no se indica otro valor.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final Map<String, Dao> shards;
+    private final ShardRing ring;
+    private final int batchSize;
+
+    /**
+     * Crea la herramienta.
+     *
+     * @param shards El DAO de cada shard, por nombre.
+     * @param ring El anillo que fija el dueño de cada login.
+     * @param batchSize Usuarios leídos por página.
+     */
+    public ShardRebalancer(Map<String, Dao> shards, ShardRing ring, int batchSize) {
+        this.shards = shards;
+        this.ring = ring;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Recorre todos los shards y mueve los usuarios que no están en su dueño.
+     *
+     * @param dryRun Si solo se cuentan, sin moverlos.
+     * @return Número de usuarios movidos, o que se moverían.
+     * @throws SQLException si falla la lectura o el borrado en algún shard.
+     */
+    public long rebalance(boolean dryRun) throws SQLException {
+        long moved = 0;
+        for (Map.Entry<String, Dao> shard : shards.entrySet()) {
+            long count = rebalance(shard.getKey(), shard.getValue(), dryRun);
+            LOGGER.log(Level.INFO, "Shard {0}: {1} usuarios {2}.",
+                    new Object[]{shard.getKey(), String.valueOf(count), dryRun ? "por mover" : "movidos"});
+            moved += count;
+        }
+        return moved;
+    }
+
+    /**
+     * Mueve los usuarios de un shard que pertenecen a otro.
+     *
+     * @param name Nombre del shard.
+     * @param source DAO del shard.
+     * @param dryRun Si solo se cuentan, sin moverlos.
+     * @return Número de usuarios movidos, o que se moverían.
+     * @throws SQLException si falla la lectura o el borrado.
+     */
+    private long rebalance(String name, Dao source, boolean dryRun) throws SQLException {
+        long moved = 0;
+        String after = "";
+        List<User> page;
+        do {
+            page = source.exportUsers(after, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            after = page.get(page.size() - 1).getLogin();
+
+            // Agrupar por dueño los usuarios que no están en su sitio
+            Map<String, List<User>> misplaced = new LinkedHashMap<>();
+            for (User user : page) {
+                String owner = ring.shardFor(user.getLogin());
+                if (!owner.equals(name)) {
+                    misplaced.computeIfAbsent(owner, key -> new ArrayList<>()).add(user);
+                }
+            }
+
+            for (Map.Entry<String, List<User>> target : misplaced.entrySet()) {
+                List<User> users = target.getValue();
+                if (dryRun) {
+                    moved += users.size();
+                    continue;
+                }
+                // Copiar primero; solo se borran los que ya están en el destino
+                Dao destination = shards.get(target.getKey());
+                List<Message> responses = destination.importUsers(users);
+                List<String> copied = new ArrayList<>(users.size());
+                List<String> repeated = new ArrayList<>();
+                for (int i = 0; i < users.size(); i++) {
+                    MessageType type = responses.get(i).getType();
+                    if (type == MessageType.OK_RESPONSE) {
+                        copied.add(users.get(i).getLogin());
+                    } else if (type == MessageType.LOGIN_EXIST_ERROR) {
+                        repeated.add(users.get(i).getLogin());
+                    } else {
+                        LOGGER.log(Level.WARNING, "No se pudo copiar {0} a {1}: {2}",
+                                new Object[]{users.get(i).getLogin(), target.getKey(), type});
+                    }
+                }
+                // Un rechazo como repetido solo cuenta si el login está de verdad en el destino
+                Set<String> present = destination.existingLogins(repeated);
+                for (String login : repeated) {
+                    if (present.contains(login)) {
+                        copied.add(login);
+                    } else {
+                        LOGGER.log(Level.WARNING, "{0} no está en {1} aunque se rechazó como repetido.",
+                                new Object[]{login, target.getKey()});
+                    }
+                }
+                moved += source.deleteUsers(copied);
+            }
+        } while (page.size() == batchSize);
+        return moved;
+    }
+
+    /**
+     * Ejecuta la herramienta con la configuración de
+     * {@code dbserver.dbConnection}.
+     *
+     * @param args {@code --dry-run} para solo contar y {@code --batch=N} para
+     * el tamaño de página.
+     */
+    public static void main(String[] args) {
+        boolean dryRun = false;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        for (String arg : args) {
+            if ("--dry-run".equals(arg)) {
+                dryRun = true;
+            } else if (arg.startsWith("--batch=")) {
+                batchSize = Integer.parseInt(arg.substring("--batch=".length()));
+            } else {
+                System.err.println("Uso: ShardRebalancer [--dry-run] [--batch=N]");
+                System.exit(2);
+            }
+        }
+
+        List<String> urls = ApplicationServerFactory.shardUrls();
+        if (urls.isEmpty()) {
+            System.err.println("No hay shards configurados en db.shards.");
+            System.exit(2);
+        }
+        String user = ServerConfig.getString("db.user", null);
+        String password = ServerConfig.getString("db.password", null);
+        List<String> names = new ArrayList<>(urls.size());
+        List<PostgresConnectionPool> pools = new ArrayList<>(urls.size());
+        Map<String, Dao> daos = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String name = ApplicationServerFactory.shardName(i);
+            PostgresConnectionPool pool = new PostgresConnectionPool(name, 1, 2, urls.get(i), user, password);
+            pools.add(pool);
+            names.add(name);
+            daos.put(name, Dao.forMigration(pool));
+        }
+
+        int status = 0;
+        try {
+            ShardRing ring = new ShardRing(names, ServerConfig.getInt("db.shardVirtualNodes", 128));
+            long moved = new ShardRebalancer(daos, ring, batchSize).rebalance(dryRun);
+            System.out.println((dryRun ? "Usuarios por mover: " : "Usuarios movidos: ") + moved);
+        } catch (SQLException event) {
+            LOGGER.log(Level.SEVERE, "Error al mover usuarios: {0}", event.getMessage());
+            status = 1;
+        } finally {
+            for (Dao dao : daos.values()) {
+                dao.close();
+            }
+            for (PostgresConnectionPool pool : pools) {
+                pool.close();
+            }
+        }
+        System.exit(status);
+    }
+}
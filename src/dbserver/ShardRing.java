@@ -0,0 +1,99 @@
+package dbserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente que asigna cada login a un shard.
+ *
+ * <p>
+ * Cada shard ocupa {@code virtualNodes} posiciones del anillo, calculadas a
+ * partir de su nombre, y un login pertenece al primer shard que encuentra
+ * avanzando desde su propio hash. Al añadir un shard solo cambian de dueño los
+ * logins que pasan a él, aproximadamente uno de cada N, y los demás siguen en
+ * su sitio. El hash es FNV-1a de 64 bits sobre los bytes UTF-8, mezclado
+ * después, de modo que no depende de la JVM y todos los servidores y
+ * herramientas calculan el mismo reparto.
+ * </p>
+ *
+ * <p>
+ * El anillo es inmutable y seguro para hilos.
+ * </p>
+ *
+ * @author Urko
+ */
+public class ShardRing {
+
+    /**
+     * Constantes del hash FNV-1a de 64 bits.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<String> shards;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Crea el anillo.
+     *
+     * @param shards Nombres de los shards, que deben ser estables: son los
+     * que fijan sus posiciones.
+     * @param virtualNodes Posiciones de cada shard en el anillo.
+     */
+    public ShardRing(List<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("El anillo necesita al menos un shard.");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        int nodes = Math.max(1, virtualNodes);
+        for (String shard : shards) {
+            for (int i = 0; i < nodes; i++) {
+                ring.put(hash(shard + '#' + i), shard);
+            }
+        }
+    }
+
+    /**
+     * Devuelve el shard al que pertenece un login.
+     *
+     * @param login El login, que no puede ser {@code null}.
+     * @return El nombre del shard.
+     */
+    public String shardFor(String login) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(login));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * @return los nombres de los shards, en el orden de creación.
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * Calcula la posición de una clave en el anillo.
+     *
+     * @param key La clave.
+     * @return El hash de 64 bits.
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        // Mezcla final de MurmurHash3 para repartir las claves parecidas
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
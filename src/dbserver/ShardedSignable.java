@@ -0,0 +1,175 @@
+package dbserver;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import metrics.MetricsRegistry;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.Signable;
+import utilidades.User;
+
+/**
+ * Reparte los usuarios entre varias bases de datos (shards) según su login.
+ *
+ * <p>
+ * Cada shard tiene su propio {@link Dao} y su pool, y un {@link ShardRing}
+ * decide el dueño de cada login. El registro y el inicio de sesión se hacen
+ * solo en el shard dueño.
+ * </p>
+ *
+ * <p>
+ * Al añadir shards, el anillo anterior se conserva mientras
+ * {@link ShardRebalancer} mueve los usuarios: un inicio de sesión que falla en
+ * el dueño nuevo se repite en el anterior, y un registro se rechaza si el
+ * login aún existe en el anterior. Cuando termina la migración basta con
+ * arrancar sin el anillo anterior.
+ * </p>
+ *
+ * <p>
+ * Un usuario sin login, que ambos formatos de mensaje pueden traer, no tiene
+ * posición en el anillo: se atiende en el primer shard, que responde como lo
+ * haría el servidor sin shards.
+ * </p>
+ *
+ * <p>
+ * Los inicios de sesión repetidos en el dueño anterior se cuentan en
+ * {@link MetricsRegistry} como {@code shard_fallback_total}.
+ * </p>
+ *
+ * @author Urko
+ */
+public class ShardedSignable implements Signable, AsyncSignable {
+
+    private final Map<String, Dao> shards;
+    private final ShardRing ring;
+    private final ShardRing previous;
+
+    /**
+     * Inicios de sesión repetidos en el dueño anterior durante una migración.
+     */
+    private final LongAdder fallbacks = MetricsRegistry.getInstance().counter("shard_fallback_total");
+
+    /**
+     * Crea el repartidor.
+     *
+     * @param shards El DAO de cada shard, por nombre.
+     * @param ring El anillo actual, con los nombres de {@code shards}.
+     * @param previous El anillo anterior mientras se migran usuarios, o
+     * {@code null}.
+     */
+    public ShardedSignable(Map<String, Dao> shards, ShardRing ring, ShardRing previous) {
+        for (ShardRing checked : new ShardRing[]{ring, previous}) {
+            for (String shard : checked == null ? Collections.<String>emptyList() : checked.getShards()) {
+                if (!shards.containsKey(shard)) {
+                    throw new IllegalArgumentException("Shard sin DAO: " + shard);
+                }
+            }
+        }
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+        this.ring = ring;
+        this.previous = previous;
+    }
+
+    @Override
+    public Message signUp(User user) {
+        Dao previousOwner = previousOwner(user);
+        if (previousOwner != null) {
+            Message response = previousOwner.checkLogin(user);
+            if (response != null) {
+                return response;
+            }
+        }
+        return owner(user).signUp(user);
+    }
+
+    @Override
+    public Message signIn(User user) {
+        Message response = owner(user).signIn(user);
+        Dao previousOwner = previousOwner(user);
+        if (previousOwner == null || response.getType() != MessageType.SIGNIN_ERROR) {
+            return response;
+        }
+        fallbacks.increment();
+        return previousOwner.signIn(user);
+    }
+
+    @Override
+    public CompletableFuture<Message> signUpAsync(User user) {
+        Dao previousOwner = previousOwner(user);
+        if (previousOwner == null) {
+            return owner(user).signUpAsync(user);
+        }
+        return previousOwner.checkLoginAsync(user).thenCompose(response -> response != null
+                ? CompletableFuture.completedFuture(response)
+                : owner(user).signUpAsync(user));
+    }
+
+    @Override
+    public CompletableFuture<Message> signInAsync(User user) {
+        Dao previousOwner = previousOwner(user);
+        CompletableFuture<Message> response = owner(user).signInAsync(user);
+        if (previousOwner == null) {
+            return response;
+        }
+        return response.thenCompose(result -> {
+            if (result.getType() != MessageType.SIGNIN_ERROR) {
+                return CompletableFuture.completedFuture(result);
+            }
+            fallbacks.increment();
+            return previousOwner.signInAsync(user);
+        });
+    }
+
+    /**
+     * @return el DAO de cada shard, por nombre.
+     */
+    public Map<String, Dao> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return el anillo actual.
+     */
+    public ShardRing getRing() {
+        return ring;
+    }
+
+    /**
+     * @return lecturas repetidas en el dueño anterior.
+     */
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Devuelve el DAO del shard dueño de un login, o el del primer shard si el
+     * usuario no tiene login.
+     *
+     * @param user El usuario.
+     * @return El DAO.
+     */
+    private Dao owner(User user) {
+        if (user.getLogin() == null) {
+            return shards.get(ring.getShards().get(0));
+        }
+        return shards.get(ring.shardFor(user.getLogin()));
+    }
+
+    /**
+     * Devuelve el DAO del dueño anterior de un login durante una migración.
+     *
+     * @param user El usuario.
+     * @return El DAO, o {@code null} si no hay migración, el dueño no ha
+     * cambiado o el usuario no tiene login.
+     */
+    private Dao previousOwner(User user) {
+        if (previous == null || user.getLogin() == null) {
+            return null;
+        }
+        String before = previous.shardFor(user.getLogin());
+        return before.equals(ring.shardFor(user.getLogin())) ? null : shards.get(before);
+    }
+}
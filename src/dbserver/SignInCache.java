@@ -0,0 +1,306 @@
+package dbserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché en memoria de inicios de sesión correctos, delante de
+ * {@link Dao#signIn(utilidades.User)}.
+ *
+ * <p>
+ * Guarda por login el nombre y el estado activo del usuario junto con un
+ * verificador de la contraseña: un SHA-256 de la contraseña con una sal
+ * aleatoria por entrada. La contraseña en claro nunca se almacena. Un inicio
+ * de sesión se sirve desde la caché solo si la contraseña recibida produce el
+ * mismo verificador; en cualquier otro caso se consulta la base de datos.
+ * </p>
+ *
+ * <p>
+ * Las entradas caducan a los {@code db.signInCacheTtl} milisegundos, de modo
+ * que los cambios hechos en la base de datos por otras aplicaciones se ven como
+ * mucho con ese retraso. El tamaño se limita a {@code db.signInCacheSize}
+ * entradas repartidas en segmentos con bloqueo propio, cada uno con expulsión
+ * LRU, para que los hilos no compitan por un único bloqueo.
+ * </p>
+ *
+ * <p>
+ * {@link Dao} usa una segunda instancia, con un tiempo de vida corto, como
+ * caché negativa de inicios de sesión fallidos.
+ * </p>
+ *
+ * @author Urko
+ */
+public class SignInCache {
+
+    /**
+     * Número de segmentos independientes.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Bytes de sal por entrada.
+     */
+    private static final int SALT_SIZE = 16;
+
+    /**
+     * Generador de sales.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Segmentos de la caché; el login elige el segmento por su hash.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Tiempo de vida de una entrada en milisegundos.
+     */
+    private final long ttl;
+
+    /**
+     * Indica si la caché está activa.
+     */
+    private final boolean enabled;
+
+    /**
+     * Contadores de aciertos, fallos y expulsiones.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Crea la caché con la configuración del archivo de propiedades.
+     */
+    public SignInCache() {
+        this(ServerConfig.getInt("db.signInCacheSize", 10000), ServerConfig.getLong("db.signInCacheTtl", 60000));
+    }
+
+    /**
+     * Crea la caché.
+     *
+     * @param maxSize número máximo de entradas; {@code 0} desactiva la caché.
+     * @param ttl tiempo de vida de cada entrada en milisegundos.
+     */
+    public SignInCache(int maxSize, long ttl) {
+        this.enabled = maxSize > 0 && ttl > 0;
+        this.ttl = ttl;
+        this.segments = new Segment[SEGMENTS];
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Busca un inicio de sesión en la caché.
+     *
+     * @param login login del usuario.
+     * @param password contraseña recibida.
+     * @return la entrada si existe, no ha caducado y la contraseña coincide;
+     * {@code null} en otro caso.
+     */
+    public Entry lookup(String login, String password) {
+        if (!enabled || login == null || password == null) {
+            return null;
+        }
+        Segment segment = segmentFor(login);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(login);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                segment.remove(login);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry != null && MessageDigest.isEqual(entry.verifier, verifier(entry.salt, password))) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Indica si hay una entrada vigente para un login, sea cual sea la
+     * contraseña. No cuenta como acierto ni como fallo.
+     *
+     * @param login login del usuario.
+     * @return {@code true} si el login tiene una entrada sin caducar.
+     */
+    public boolean contains(String login) {
+        if (!enabled || login == null) {
+            return false;
+        }
+        Segment segment = segmentFor(login);
+        synchronized (segment) {
+            Entry entry = segment.get(login);
+            return entry != null && entry.expiresAt > System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Guarda un inicio de sesión correcto.
+     *
+     * @param login login del usuario.
+     * @param password contraseña con la que ha iniciado sesión.
+     * @param name nombre del usuario.
+     * @param active estado activo del usuario.
+     */
+    public void put(String login, String password, String name, boolean active) {
+        if (!enabled || login == null || password == null) {
+            return;
+        }
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        Entry entry = new Entry(name, active, salt, verifier(salt, password), System.currentTimeMillis() + ttl);
+        Segment segment = segmentFor(login);
+        synchronized (segment) {
+            segment.put(login, entry);
+        }
+    }
+
+    /**
+     * Elimina la entrada de un login, por ejemplo tras un registro.
+     *
+     * @param login login del usuario.
+     */
+    public void invalidate(String login) {
+        if (!enabled || login == null) {
+            return;
+        }
+        Segment segment = segmentFor(login);
+        synchronized (segment) {
+            segment.remove(login);
+        }
+    }
+
+    /**
+     * @return número de inicios de sesión servidos desde la caché.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return número de búsquedas que han tenido que ir a la base de datos.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return número de entradas expulsadas por tamaño o caducidad.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return número de entradas guardadas.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Elige el segmento de un login.
+     *
+     * @param login login del usuario.
+     * @return el segmento.
+     */
+    private Segment segmentFor(String login) {
+        int hash = login.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Calcula el verificador de una contraseña.
+     *
+     * @param salt sal de la entrada.
+     * @param password contraseña en claro.
+     * @return SHA-256 de la sal y la contraseña.
+     */
+    private static byte[] verifier(byte[] salt, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException event) {
+            // Toda plataforma Java debe incluir SHA-256
+            throw new IllegalStateException(event);
+        }
+    }
+
+    /**
+     * Datos de un inicio de sesión correcto.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final boolean active;
+        private final byte[] salt;
+        private final byte[] verifier;
+        private final long expiresAt;
+
+        Entry(String name, boolean active, byte[] salt, byte[] verifier, long expiresAt) {
+            this.name = name;
+            this.active = active;
+            this.salt = salt;
+            this.verifier = verifier;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return nombre del usuario.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return estado activo del usuario.
+         */
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    /**
+     * Segmento de la caché con expulsión LRU. Se usa siempre bajo su propio
+     * bloqueo.
+     */
+    private class Segment extends LinkedHashMap<String, SignInCache.Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SignInCache.Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package dbserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Agrupa los registros de usuarios para escribirlos por lotes.
+ *
+ * <p>
+ * Cada petición de registro se encola y el hilo que la envía espera su
+ * respuesta. Los hilos escritores toman la primera petición de la cola, esperan
+ * como mucho {@code db.signUpBatchDelay} milisegundos a que lleguen más, hasta
+ * {@code db.signUpBatchSize}, y escriben el lote completo en una sola
+ * transacción. Después cada llamante recibe su propio {@link Message}, de modo
+ * que un login repetido solo falla el registro de ese usuario.
+ * </p>
+ *
+ * <p>
+ * Cuando hay poca carga el lote suele tener un único usuario y el coste es el
+ * retraso de espera; con muchos registros simultáneos se ahorran viajes a la
+ * base de datos y confirmaciones.
+ * </p>
+ *
+ * <p>
+ * La cola de peticiones está acotada ({@code db.signUpBatchQueue}): cuando
+ * está llena el registro se rechaza con {@code CONNECTION_ERROR} en lugar de
+ * acumular peticiones en memoria. Tras {@link #shutdown()} los escritores
+ * terminan y las peticiones pendientes se rechazan igual.
+ * </p>
+ *
+ * @author Urko
+ */
+class SignUpBatcher {
+
+    /**
+     * Logger para registrar eventos y errores de la clase.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SignUpBatcher.class.getName());
+
+    /**
+     * Numeración de los hilos escritores.
+     */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Petición de registro pendiente.
+     */
+    private static class Request {
+
+        private final User user;
+        private final String password;
+        private final CompletableFuture<Message> response = new CompletableFuture<>();
+
+        Request(User user, String password) {
+            this.user = user;
+            this.password = password;
+        }
+    }
+
+    /**
+     * Escribe un lote, a partir de los usuarios y los hashes de sus
+     * contraseñas, y devuelve una respuesta por usuario, en el mismo orden.
+     */
+    private final BiFunction<List<User>, List<String>, List<Message>> writer;
+
+    /**
+     * Peticiones a la espera de un escritor.
+     */
+    private final BlockingQueue<Request> queue;
+
+    /**
+     * Hilos escritores, para detenerlos en {@link #shutdown()}.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Si el agrupador sigue aceptando peticiones.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Tamaño máximo del lote y espera máxima para completarlo, en nanosegundos.
+     */
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    /**
+     * Lotes escritos y usuarios incluidos en ellos.
+     */
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedUsers = new LongAdder();
+
+    /**
+     * Registros rechazados por tener la cola llena o estar detenido.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Crea el agrupador y arranca sus hilos escritores, que son demonios y
+     * terminan con la aplicación o con {@link #shutdown()}.
+     *
+     * @param writer función que escribe un lote.
+     * @param maxBatchSize número máximo de usuarios por lote.
+     * @param maxDelay espera máxima para completar un lote, en milisegundos.
+     * @param writerThreads número de hilos escritores.
+     * @param queueSize número máximo de peticiones a la espera.
+     */
+    SignUpBatcher(BiFunction<List<User>, List<String>, List<Message>> writer, int maxBatchSize, long maxDelay,
+            int writerThreads, int queueSize) {
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelay));
+        for (int i = 0; i < Math.max(1, writerThreads); i++) {
+            Thread thread = new Thread(this::writeLoop, "signup-batcher-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Encola un registro y espera a que se escriba su lote.
+     *
+     * @param user usuario a registrar.
+     * @param password hash de la contraseña que se guardará.
+     * @return la respuesta del registro.
+     */
+    Message submit(User user, String password) {
+        try {
+            return submitAsync(user, password).get();
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+            return new Message(MessageType.CONNECTION_ERROR, user);
+        } catch (ExecutionException event) {
+            // No ocurre: write completa siempre los futuros con un mensaje
+            return new Message(MessageType.SQL_ERROR, user);
+        }
+    }
+
+    /**
+     * Encola un registro sin esperar a que se escriba.
+     *
+     * @param user usuario a registrar.
+     * @param password hash de la contraseña que se guardará.
+     * @return futuro con la respuesta del registro, {@code CONNECTION_ERROR}
+     * si la cola está llena o el agrupador está detenido.
+     */
+    CompletableFuture<Message> submitAsync(User user, String password) {
+        Request request = new Request(user, password);
+        if (!running || !queue.offer(request)) {
+            rejected.increment();
+            LOGGER.warning(running ? "Error: Cola de registros por lotes llena."
+                    : "Error: Agrupador de registros detenido.");
+            return CompletableFuture.completedFuture(new Message(MessageType.CONNECTION_ERROR, user));
+        }
+        if (!running && queue.remove(request)) {
+            // Se detuvo mientras se encolaba y ningún escritor la atenderá
+            request.response.complete(new Message(MessageType.CONNECTION_ERROR, user));
+        }
+        return request.response;
+    }
+
+    /**
+     * Detiene los hilos escritores. El lote que se esté escribiendo termina, y
+     * las peticiones que quedan en la cola se rechazan con
+     * {@code CONNECTION_ERROR}.
+     */
+    void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.response.complete(new Message(MessageType.CONNECTION_ERROR, request.user));
+        }
+    }
+
+    /**
+     * Bucle de cada hilo escritor. Termina cuando se interrumpe el hilo.
+     */
+    private void writeLoop() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException event) {
+                // Se escribe lo ya tomado de la cola y el hilo termina
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        LOGGER.log(Level.FINE, "Hilo {0} detenido.", Thread.currentThread().getName());
+    }
+
+    /**
+     * Escribe un lote y entrega a cada llamante su respuesta.
+     *
+     * @param batch las peticiones del lote.
+     */
+    private void write(List<Request> batch) {
+        List<User> users = new ArrayList<>(batch.size());
+        List<String> passwords = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            users.add(request.user);
+            passwords.add(request.password);
+        }
+        try {
+            List<Message> responses = writer.apply(users, passwords);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).response.complete(responses.get(i));
+            }
+            batches.increment();
+            batchedUsers.add(batch.size());
+        } catch (RuntimeException event) {
+            LOGGER.log(Level.SEVERE, "Error al registrar un lote: {0}", event.toString());
+            for (Request request : batch) {
+                request.response.complete(new Message(MessageType.SQL_ERROR, request.user));
+            }
+        }
+    }
+
+    /**
+     * @return número de lotes escritos.
+     */
+    long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return número de usuarios escritos en lotes.
+     */
+    long getBatchedUserCount() {
+        return batchedUsers.sum();
+    }
+
+    /**
+     * @return número de registros rechazados por tener la cola llena o estar
+     * detenido.
+     */
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,109 @@
+package dbserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caché de sentencias preparadas asociada a una única conexión del pool.
+ *
+ * <p>
+ * Las sentencias se indexan por su texto SQL y se reutilizan entre peticiones,
+ * de modo que el driver de PostgreSQL puede pasar a usar sentencias preparadas
+ * en el servidor en lugar de analizar y planificar la consulta cada vez. Cuando
+ * se supera el tamaño máximo se cierra la sentencia usada hace más tiempo
+ * (LRU).
+ * </p>
+ *
+ * <p>
+ * No es segura para hilos: solo la usa el hilo que tiene prestada la conexión.
+ * </p>
+ *
+ * @author Urko
+ */
+class StatementCache {
+
+    /**
+     * Logger para registrar eventos y errores de la clase.
+     */
+    private static final Logger LOGGER = Logger.getLogger(StatementCache.class.getName());
+
+    /**
+     * Conexión sobre la que se preparan las sentencias.
+     */
+    private final Connection connection;
+
+    /**
+     * Sentencias preparadas en orden de acceso, de la menos a la más reciente.
+     */
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * Crea una caché vacía para una conexión.
+     *
+     * @param connection la conexión propietaria de las sentencias.
+     * @param maxSize número máximo de sentencias abiertas, como mínimo una.
+     */
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        final int limit = Math.max(1, maxSize);
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > limit) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Devuelve la sentencia preparada para el SQL indicado, creándola si no
+     * está en la caché. El llamante no debe cerrarla.
+     *
+     * @param sql texto de la consulta.
+     * @return la sentencia preparada, con los parámetros anteriores borrados.
+     * @throws SQLException si ocurre un error al preparar la sentencia.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Cierra y descarta todas las sentencias de la caché.
+     */
+    void clear() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+    }
+
+    /**
+     * Cierra una sentencia registrando, sin propagar, cualquier error.
+     *
+     * @param stmt la sentencia a cerrar.
+     */
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException event) {
+            LOGGER.log(Level.WARNING, "Error al cerrar la sentencia: {0}", event.getMessage());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias seguro para hilos y de memoria fija.
+ *
+ * <p>
+ * Los valores menores de 16 se guardan exactos y los mayores en cubos de 16
+ * subdivisiones por potencia de dos, con un error relativo menor del 6,25 %.
+ * Registrar un valor solo incrementa un contador atómico, sin cerrojos, de
+ * modo que puede usarse en el camino de cada petición.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class Histogram {
+
+    /**
+     * Subdivisiones por potencia de dos, y su logaritmo en base 2.
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Número de cubos necesario para cualquier {@code long} positivo.
+     */
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra un valor.
+     *
+     * @param value el valor; los negativos cuentan como 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // Otro hilo ha cambiado el máximo: se vuelve a comparar
+        }
+    }
+
+    /**
+     * Registra, en microsegundos, el tiempo transcurrido desde un instante.
+     *
+     * @param startNanos instante inicial, obtenido con
+     * {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @return número de valores registrados.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return suma de los valores registrados.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return el mayor valor registrado.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Devuelve los percentiles indicados a partir de una copia de los cubos.
+     * Con registros concurrentes el resultado es aproximado, no atómico.
+     *
+     * @param percentiles percentiles entre 0 y 100, en orden creciente.
+     * @return el límite superior del cubo que contiene cada percentil, o
+     * {@code 0} si no hay valores.
+     */
+    public long[] percentiles(double... percentiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[percentiles.length];
+        if (total == 0) {
+            return values;
+        }
+        long seen = 0;
+        int bucket = 0;
+        for (int p = 0; p < percentiles.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(total * percentiles[p] / 100.0));
+            while (bucket < BUCKETS - 1 && seen + snapshot[bucket] < rank) {
+                seen += snapshot[bucket];
+                bucket++;
+            }
+            values[p] = Math.min(upperBound(bucket), max.get());
+        }
+        return values;
+    }
+
+    /**
+     * Calcula el cubo de un valor.
+     *
+     * @param value valor no negativo.
+     * @return índice del cubo.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Calcula el mayor valor que cae en un cubo.
+     *
+     * @param index índice del cubo.
+     * @return el límite superior del cubo.
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
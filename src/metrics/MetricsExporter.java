@@ -0,0 +1,200 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publica un {@link MetricsRegistry} por JMX y en formato de texto por HTTP.
+ *
+ * <p>
+ * Por JMX se registra un MBean {@code metrics:type=Server} con un atributo de
+ * solo lectura por cada serie. Por HTTP, un {@link HttpServer} escucha en la
+ * dirección indicada y responde en {@code /metrics} con el formato de texto de
+ * Prometheus. El servidor HTTP usa un único hilo de tipo daemon, de modo que
+ * no impide que el proceso termine.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class MetricsExporter {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MetricsExporter.class.getName());
+
+    /**
+     * Nombre del MBean con las métricas.
+     */
+    private static final String OBJECT_NAME = "metrics:type=Server";
+
+    private final MetricsRegistry registry;
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private ObjectName objectName;
+
+    /**
+     * Crea el exportador de un registro.
+     *
+     * @param registry el registro a publicar.
+     */
+    public MetricsExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registra el MBean con las métricas en el servidor de MBeans de la
+     * plataforma. Si ya hay uno con el mismo nombre, lo sustituye.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(), name);
+            objectName = name;
+        } catch (JMException event) {
+            LOGGER.log(Level.WARNING, "No se pudo registrar el MBean de métricas: {0}", event.getMessage());
+        }
+    }
+
+    /**
+     * Arranca el servidor HTTP de métricas.
+     *
+     * @param host dirección en la que escuchar.
+     * @param port puerto en el que escuchar.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public void startHttp(String host, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        httpServer.createContext("/metrics", this::handle);
+        httpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(httpExecutor);
+        httpServer.start();
+        LOGGER.log(Level.INFO, "Métricas disponibles en http://{0}:{1}/metrics",
+                new Object[]{host, String.valueOf(httpServer.getAddress().getPort())});
+    }
+
+    /**
+     * Detiene el servidor HTTP y retira el MBean.
+     */
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+            httpServer = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException event) {
+                LOGGER.log(Level.FINE, "No se pudo retirar el MBean de métricas: {0}", event.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Responde a una petición HTTP con las métricas en texto.
+     *
+     * @param exchange la petición.
+     * @throws IOException si falla el envío.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * MBean dinámico cuyos atributos son las series del registro en el momento
+     * de consultarlo.
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = registry.snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = registry.snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Las métricas son de solo lectura: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : registry.snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "Métricas del servidor",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de las métricas del servidor: contadores, histogramas de latencia y
+ * valores instantáneos leídos bajo demanda.
+ *
+ * <p>
+ * Cada métrica se identifica por su nombre y, opcionalmente, una etiqueta,
+ * con la notación de Prometheus: {@code nombre} o
+ * {@code nombre{etiqueta="valor"}}. Los componentes piden sus métricas una vez
+ * y guardan la referencia, de modo que actualizarlas no pasa por el registro.
+ * </p>
+ *
+ * <p>
+ * {@link MetricsExporter} publica el registro por JMX y en formato de texto
+ * por HTTP.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class MetricsRegistry {
+
+    /**
+     * Instancia compartida por todo el servidor.
+     */
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    /**
+     * Percentiles que se publican de cada histograma.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * @return el registro compartido por todo el servidor.
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Devuelve el contador con el nombre indicado, creándolo si no existe.
+     *
+     * @param name nombre de la métrica.
+     * @return el contador.
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Devuelve el contador con el nombre y la etiqueta indicados, creándolo si
+     * no existe.
+     *
+     * @param name nombre de la métrica.
+     * @param label nombre de la etiqueta.
+     * @param value valor de la etiqueta.
+     * @return el contador.
+     */
+    public LongAdder counter(String name, String label, String value) {
+        return counter(series(name, label, value));
+    }
+
+    /**
+     * Devuelve el histograma con el nombre indicado, creándolo si no existe.
+     *
+     * @param name nombre de la métrica.
+     * @return el histograma.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Devuelve el histograma con el nombre y la etiqueta indicados, creándolo
+     * si no existe.
+     *
+     * @param name nombre de la métrica.
+     * @param label nombre de la etiqueta.
+     * @param value valor de la etiqueta.
+     * @return el histograma.
+     */
+    public Histogram histogram(String name, String label, String value) {
+        return histogram(series(name, label, value));
+    }
+
+    /**
+     * Registra un valor que se lee cada vez que se publican las métricas. Si
+     * ya había uno con el mismo nombre, lo sustituye.
+     *
+     * @param name nombre de la métrica.
+     * @param supplier función que devuelve el valor actual.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Registra un valor con etiqueta que se lee cada vez que se publican las
+     * métricas. Si ya había uno con el mismo nombre y etiqueta, lo sustituye.
+     *
+     * @param name nombre de la métrica.
+     * @param label nombre de la etiqueta.
+     * @param value valor de la etiqueta.
+     * @param supplier función que devuelve el valor actual.
+     */
+    public void gauge(String name, String label, String value, LongSupplier supplier) {
+        gauge(series(name, label, value), supplier);
+    }
+
+    /**
+     * Devuelve el valor actual de todas las métricas, ordenadas por nombre.
+     * Cada histograma aporta su número de valores, su suma, su máximo y sus
+     * percentiles.
+     *
+     * @return mapa del nombre de cada serie a su valor.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(suffix(name, "_count", null), histogram.getCount());
+            values.put(suffix(name, "_sum", null), histogram.getSum());
+            values.put(suffix(name, "_max", null), histogram.getMax());
+            long[] percentiles = histogram.percentiles(PERCENTILES);
+            for (int i = 0; i < percentiles.length; i++) {
+                values.put(suffix(name, "", "quantile=\"" + QUANTILES[i] + "\""), percentiles[i]);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Escribe todas las métricas en el formato de texto de Prometheus, una
+     * serie por línea.
+     *
+     * @return el texto con las métricas.
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder(4096);
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Compone el nombre de una serie con una etiqueta.
+     *
+     * @param name nombre de la métrica.
+     * @param label nombre de la etiqueta.
+     * @param value valor de la etiqueta.
+     * @return el nombre de la serie.
+     */
+    private static String series(String name, String label, String value) {
+        return name + '{' + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    /**
+     * Añade un sufijo al nombre de una serie y, opcionalmente, una etiqueta
+     * más.
+     *
+     * @param series nombre de la serie, con o sin etiquetas.
+     * @param suffix sufijo del nombre.
+     * @param extra etiqueta a añadir, ya compuesta, o {@code null}.
+     * @return el nombre de la nueva serie.
+     */
+    private static String suffix(String series, String suffix, String extra) {
+        int brace = series.indexOf('{');
+        String name = brace < 0 ? series : series.substring(0, brace);
+        String labels = brace < 0 ? "" : series.substring(brace + 1, series.length() - 1);
+        if (extra != null) {
+            labels = labels.isEmpty() ? extra : labels + ',' + extra;
+        }
+        return name + suffix + (labels.isEmpty() ? "" : '{' + labels + '}');
+    }
+}
@@ -0,0 +1,211 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import metrics.MetricsRegistry;
+
+/**
+ * Hilo que acepta conexiones en un socket de escucha y las entrega a su propio
+ * ejecutor de {@link Worker}.
+ *
+ * <p>
+ * {@link MainServer} arranca varios con {@code server.acceptors}. Si la
+ * plataforma admite {@code SO_REUSEPORT}, cada uno abre su propio socket en el
+ * mismo puerto y es el núcleo del sistema operativo quien reparte las
+ * conexiones entrantes entre ellos; si no, todos aceptan del mismo socket.
+ * La opción se busca por nombre, porque {@code StandardSocketOptions} solo la
+ * incluye desde Java 9.
+ * </p>
+ *
+ * <p>
+ * Cada uno publica sus conexiones aceptadas y rechazadas y el estado de su
+ * ejecutor en {@link MetricsRegistry}, con su número como etiqueta
+ * {@code acceptor}.
+ * </p>
+ *
+ * @author Sergio
+ */
+class Acceptor implements Runnable {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(Acceptor.class.getName());
+
+    /**
+     * Opción {@code SO_REUSEPORT} de la plataforma, o {@code null} si no la
+     * tiene.
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePort();
+
+    private final int index;
+    private final ServerSocketChannel channel;
+    private final ExecutorService executor;
+    private final ConnectionRegistry registry;
+    private final AdmissionController admission;
+    private final ClientLimits limits;
+
+    /**
+     * Conexiones aceptadas y rechazadas por este aceptador y en total.
+     */
+    private final LongAdder accepted;
+    private final LongAdder rejected;
+    private final LongAdder totalAccepted = MetricsRegistry.getInstance().counter("server_accepted_total");
+    private final LongAdder totalRejected = MetricsRegistry.getInstance().counter("server_rejected_total");
+
+    private volatile boolean running = true;
+
+    /**
+     * Crea un aceptador.
+     *
+     * @param index número del aceptador, usado en métricas y nombres.
+     * @param channel socket de escucha, propio o compartido con otros
+     * aceptadores.
+     * @param executor ejecutor propio para sus {@code Worker}.
+     * @param registry registro de conexiones activas.
+     * @param admission control de admisión, o {@code null}.
+     * @param limits límites de frecuencia, o {@code null}.
+     */
+    Acceptor(int index, ServerSocketChannel channel, ExecutorService executor,
+            ConnectionRegistry registry, AdmissionController admission, ClientLimits limits) {
+        this.index = index;
+        this.channel = channel;
+        this.executor = executor;
+        this.registry = registry;
+        this.admission = admission;
+        this.limits = limits;
+
+        String label = String.valueOf(index);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        accepted = metrics.counter("acceptor_accepted_total", "acceptor", label);
+        rejected = metrics.counter("acceptor_rejected_total", "acceptor", label);
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            metrics.gauge("acceptor_busy_workers", "acceptor", label, pool::getActiveCount);
+            metrics.gauge("acceptor_queued_clients", "acceptor", label, () -> pool.getQueue().size());
+        }
+    }
+
+    /**
+     * @return {@code true} si la plataforma admite {@code SO_REUSEPORT}.
+     */
+    static boolean isReusePortSupported() {
+        return SO_REUSEPORT != null;
+    }
+
+    /**
+     * Abre un socket de escucha bloqueante.
+     *
+     * @param port puerto en el que escuchar.
+     * @param backlog conexiones pendientes de aceptar que admite el sistema.
+     * @param reusePort si se activa {@code SO_REUSEPORT} para compartir el
+     * puerto con otros sockets.
+     * @return el socket de escucha.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    static ServerSocketChannel open(int port, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reusePort && SO_REUSEPORT != null) {
+                channel.setOption(SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port), backlog);
+            return channel;
+        } catch (IOException | RuntimeException event) {
+            channel.close();
+            throw event;
+        }
+    }
+
+    /**
+     * @return el ejecutor de los {@code Worker} de este aceptador.
+     */
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Acepta conexiones hasta que se llame a {@link #stop()}.
+     */
+    @Override
+    public void run() {
+        LOGGER.log(Level.INFO, "Aceptador {0} iniciado.", index);
+        while (running) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException event) {
+                break;
+            } catch (IOException event) {
+                LOGGER.log(Level.WARNING, "Error al aceptar una conexión: {0}", event.getMessage());
+                continue;
+            }
+            Socket socketClient = client.socket();
+            LOGGER.log(Level.INFO, "Cliente conectado desde: {0}", socketClient.getInetAddress());
+            accepted.increment();
+            totalAccepted.increment();
+
+            // Entrega el cliente a su ejecutor; si está saturado se rechaza
+            Worker worker = new Worker(socketClient, registry, admission, limits);
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException event) {
+                LOGGER.log(Level.WARNING, "Servidor saturado, se rechaza al cliente: {0}", socketClient.getInetAddress());
+                rejected.increment();
+                totalRejected.increment();
+                worker.finish();
+                try {
+                    client.close();
+                } catch (IOException closeEvent) {
+                    LOGGER.log(Level.WARNING, "Error al cerrar el socket: {0}", closeEvent.getMessage());
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "Aceptador {0} parado.", index);
+    }
+
+    /**
+     * Detiene el aceptador y cierra su socket de escucha para desbloquear la
+     * aceptación en curso. Cerrar un socket compartido varias veces no tiene
+     * efecto.
+     */
+    void stop() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "Error al cerrar el socket de escucha: {0}", event.getMessage());
+        }
+    }
+
+    /**
+     * Busca la opción {@code SO_REUSEPORT} entre las que admite un socket de
+     * escucha de esta plataforma.
+     *
+     * @return la opción, o {@code null} si no existe.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            for (SocketOption<?> option : probe.supportedOptions()) {
+                if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class) {
+                    return (SocketOption<Boolean>) option;
+                }
+            }
+        } catch (IOException event) {
+            LOGGER.log(Level.FINE, "No se pudo comprobar SO_REUSEPORT: {0}", event.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,347 @@
+package server;
+
+import dbserver.ServerConfig;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilidades.Message;
+import utilidades.MessageType;
+
+/**
+ * Control de admisión de peticiones con un límite de concurrencia adaptativo.
+ *
+ * <p>
+ * Solo se atienden a la vez tantas peticiones como marca el límite; las que
+ * llegan por encima esperan en una cola acotada de
+ * {@code server.admissionQueueSize} peticiones, como mucho
+ * {@code server.admissionQueueTimeout} milisegundos, y el resto se rechaza al
+ * momento, sin deserializar la petición ni pedir una conexión a la base de
+ * datos.
+ * </p>
+ *
+ * <p>
+ * El límite se ajusta con la latencia observada, al estilo de TCP Vegas: se
+ * guarda la latencia mínima reciente como referencia sin cola; mientras la
+ * latencia de cada petición no supera esa referencia multiplicada por
+ * {@code server.admissionTolerance} y el límite se está usando, crece en una
+ * unidad por cada ventana de peticiones (aumento aditivo). Si la latencia la
+ * supera, o la petición termina con {@code CONNECTION_ERROR}, el límite se
+ * reduce multiplicándolo por {@code server.admissionBackoff}, como mucho una
+ * vez por ventana (disminución multiplicativa). El límite se mueve entre
+ * {@code server.admissionMinLimit} y {@code server.admissionMaxLimit}.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class AdmissionController {
+
+    /**
+     * Logger para registrar eventos y errores de la clase.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AdmissionController.class.getName());
+
+    /**
+     * Peso de cada muestra al olvidar poco a poco la latencia mínima, para
+     * adaptarse si la latencia base sube.
+     */
+    private static final double MIN_RTT_DECAY = 0.001;
+
+    /**
+     * Límites del límite de concurrencia.
+     */
+    private final int minLimit;
+    private final int maxLimit;
+
+    /**
+     * Tamaño máximo de la cola y tiempo máximo de espera en ella, en
+     * nanosegundos.
+     */
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+
+    /**
+     * Latencia tolerada respecto a la mínima y factor de reducción.
+     */
+    private final double tolerance;
+    private final double backoff;
+
+    /**
+     * Estado protegido por el monitor de esta instancia.
+     */
+    private double limit;
+    private int inFlight;
+    private double minRtt;
+    private long completionsSinceDecrease;
+    private final Deque<Pending> queue = new ArrayDeque<>();
+
+    /**
+     * Contadores de peticiones admitidas, encoladas y rechazadas.
+     */
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Petición en espera de plaza.
+     */
+    private static class Pending {
+
+        private final Runnable onAdmit;
+        private final Runnable onReject;
+        private final long enqueuedAt = System.nanoTime();
+
+        Pending(Runnable onAdmit, Runnable onReject) {
+            this.onAdmit = onAdmit;
+            this.onReject = onReject;
+        }
+    }
+
+    /**
+     * Crea el controlador con la configuración del archivo de propiedades.
+     */
+    public AdmissionController() {
+        this(ServerConfig.getInt("server.admissionInitialLimit", 20),
+                ServerConfig.getInt("server.admissionMinLimit", 4),
+                ServerConfig.getInt("server.admissionMaxLimit", 200),
+                ServerConfig.getInt("server.admissionQueueSize", 64),
+                ServerConfig.getLong("server.admissionQueueTimeout", 200),
+                ServerConfig.getDouble("server.admissionTolerance", 2.0),
+                ServerConfig.getDouble("server.admissionBackoff", 0.9));
+    }
+
+    /**
+     * Crea el controlador.
+     *
+     * @param initialLimit límite inicial de peticiones simultáneas.
+     * @param minLimit límite mínimo.
+     * @param maxLimit límite máximo.
+     * @param queueSize peticiones que pueden esperar plaza.
+     * @param queueTimeout tiempo máximo de espera en la cola, en milisegundos.
+     * @param tolerance latencia tolerada como múltiplo de la mínima.
+     * @param backoff factor por el que se multiplica el límite al reducirlo.
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int queueSize, long queueTimeout,
+            double tolerance, double backoff) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.queueSize = Math.max(0, queueSize);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, queueTimeout));
+        this.tolerance = tolerance > 1 ? tolerance : 2.0;
+        this.backoff = backoff > 0 && backoff < 1 ? backoff : 0.9;
+    }
+
+    /**
+     * Pide plaza sin bloquear. Si no la hay y la cola tiene sitio, la petición
+     * queda en espera y se admite o se rechaza más tarde desde el hilo que
+     * libera una plaza.
+     *
+     * @param onAdmit acción a ejecutar cuando se admite la petición.
+     * @param onReject acción a ejecutar si se rechaza.
+     */
+    public void submit(Runnable onAdmit, Runnable onReject) {
+        offer(onAdmit, onReject);
+    }
+
+    /**
+     * Pide plaza esperando en la cola si hace falta.
+     *
+     * @return {@code true} si la petición se ha admitido y debe liberarse con
+     * {@link #release(long, boolean)}; {@code false} si se ha rechazado.
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    public boolean acquire() throws InterruptedException {
+        boolean[] result = new boolean[1];
+        CountDownLatch decided = new CountDownLatch(1);
+        Pending pending = offer(() -> {
+            result[0] = true;
+            decided.countDown();
+        }, decided::countDown);
+        if (pending != null && !decided.await(queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            // Al vencer el plazo la petición sigue en cola salvo que se acabe de decidir
+            synchronized (this) {
+                if (queue.remove(pending)) {
+                    rejected.increment();
+                    return false;
+                }
+            }
+            decided.await();
+        }
+        return result[0];
+    }
+
+    /**
+     * Admite, encola o rechaza una petición.
+     *
+     * @param onAdmit acción a ejecutar cuando se admite la petición.
+     * @param onReject acción a ejecutar si se rechaza.
+     * @return la petición si ha quedado en cola, o {@code null} si ya se ha
+     * decidido.
+     */
+    private Pending offer(Runnable onAdmit, Runnable onReject) {
+        boolean admit = false;
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                admit = true;
+            } else if (queue.size() < queueSize) {
+                Pending pending = new Pending(onAdmit, onReject);
+                queue.addLast(pending);
+                queued.increment();
+                return pending;
+            }
+        }
+        if (admit) {
+            admitted.increment();
+            onAdmit.run();
+        } else {
+            rejected.increment();
+            onReject.run();
+        }
+        return null;
+    }
+
+    /**
+     * Libera la plaza de una petición terminada y ajusta el límite.
+     *
+     * @param latencyNanos duración de la petición en nanosegundos.
+     * @param dropped {@code true} si la petición ha fallado por falta de
+     * recursos, como una conexión a la base de datos.
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        release(latencyNanos, dropped, true);
+    }
+
+    /**
+     * Libera la plaza de una petición que no ha llegado a resolverse, por
+     * ejemplo porque no era válida o se ha rechazado por otros límites, sin
+     * usar su duración para ajustar el límite.
+     */
+    public void cancel() {
+        release(0, false, false);
+    }
+
+    /**
+     * Libera una plaza y admite las peticiones en cola que quepan.
+     *
+     * @param latencyNanos duración de la petición en nanosegundos.
+     * @param dropped si la petición ha fallado por falta de recursos.
+     * @param sample si la duración debe usarse para ajustar el límite.
+     */
+    private void release(long latencyNanos, boolean dropped, boolean sample) {
+        Deque<Pending> toAdmit = new ArrayDeque<>();
+        Deque<Pending> toReject = new ArrayDeque<>();
+        synchronized (this) {
+            int used = inFlight;
+            inFlight--;
+            if (sample) {
+                adjust(latencyNanos, dropped, used);
+            }
+
+            // Admite las peticiones en cola que quepan y descarta las caducadas
+            long now = System.nanoTime();
+            while (!queue.isEmpty() && inFlight < (int) limit) {
+                Pending pending = queue.pollFirst();
+                if (now - pending.enqueuedAt > queueTimeoutNanos) {
+                    toReject.add(pending);
+                } else {
+                    inFlight++;
+                    toAdmit.add(pending);
+                }
+            }
+        }
+        for (Pending pending : toReject) {
+            rejected.increment();
+            pending.onReject.run();
+        }
+        for (Pending pending : toAdmit) {
+            admitted.increment();
+            pending.onAdmit.run();
+        }
+    }
+
+    /**
+     * Ajusta el límite con una nueva muestra. Se llama con el monitor tomado.
+     *
+     * @param latencyNanos duración de la petición.
+     * @param dropped si la petición ha fallado por falta de recursos.
+     * @param used peticiones en curso antes de terminar esta.
+     */
+    private void adjust(long latencyNanos, boolean dropped, int used) {
+        completionsSinceDecrease++;
+        if (!dropped) {
+            minRtt = minRtt == 0 || latencyNanos < minRtt
+                    ? latencyNanos
+                    : minRtt + MIN_RTT_DECAY * (latencyNanos - minRtt);
+        }
+        if (dropped || latencyNanos > minRtt * tolerance) {
+            // Como mucho una reducción por ventana, para no hundir el límite por una ráfaga
+            if (completionsSinceDecrease >= limit) {
+                double previous = limit;
+                limit = Math.max(minLimit, limit * backoff);
+                completionsSinceDecrease = 0;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Límite de admisión reducido de {0} a {1}.", new Object[]{(int) previous, (int) limit});
+                }
+            }
+        } else if (used >= (int) limit / 2) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Respuesta para una petición rechazada por sobrecarga. Es la misma que
+     * reciben los clientes cuando no hay conexiones a la base de datos.
+     *
+     * @return el mensaje de rechazo.
+     */
+    public static Message overloaded() {
+        return new Message(MessageType.CONNECTION_ERROR, null);
+    }
+
+    /**
+     * @return límite actual de peticiones simultáneas.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return peticiones admitidas que siguen en curso.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return peticiones esperando plaza.
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return número de peticiones admitidas.
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return número de peticiones que han tenido que esperar en la cola.
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /**
+     * @return número de peticiones rechazadas.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,274 @@
+package server;
+
+import dbserver.ServerConfig;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import metrics.MetricsRegistry;
+
+/**
+ * Manejador de {@code java.util.logging} que saca la escritura de los
+ * registros de los hilos que atienden peticiones.
+ *
+ * <p>
+ * Los registros se dejan en una cola circular acotada y un único hilo los
+ * formatea y los entrega a los manejadores originales, de modo que ni el
+ * formateo ni la E/S de la consola bloquean a quien registra. El emisor de
+ * cada registro se toma del nombre del logger, que en este proyecto es el de
+ * la clase, para no recorrer la pila en el hilo que registra.
+ * </p>
+ *
+ * <p>
+ * Con la cola llena, los mensajes por debajo de {@code WARNING} se descartan;
+ * los avisos y errores esperan hasta {@code BLOCK_TIMEOUT} milisegundos a que
+ * haya sitio. Además, cada texto de mensaje por debajo de {@code WARNING}
+ * tiene un límite de frecuencia ({@code server.logRate} por segundo, con
+ * ráfagas de {@code server.logBurst}), de modo que un mensaje repetido en cada
+ * petición no inunda la cola. Los mensajes descartados se cuentan y se avisa
+ * de ellos periódicamente.
+ * </p>
+ *
+ * <p>
+ * Como el mensaje se formatea más tarde, los parámetros de un registro deben
+ * ser valores que no cambien después, como textos o números.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * Tiempo máximo, en milisegundos, que un aviso o error espera sitio en la
+     * cola llena.
+     */
+    private static final long BLOCK_TIMEOUT = 100;
+
+    /**
+     * Registros que el hilo escritor entrega de una vez antes de vaciar los
+     * manejadores.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Tiempo mínimo, en milisegundos, entre dos avisos de mensajes
+     * descartados.
+     */
+    private static final long REPORT_INTERVAL = 1000;
+
+    /**
+     * Cola de registros pendientes de escribir.
+     */
+    private final BlockingQueue<LogRecord> queue;
+
+    /**
+     * Manejadores a los que se entregan los registros.
+     */
+    private final Handler[] delegates;
+
+    /**
+     * Límite de frecuencia por texto de mensaje.
+     */
+    private final RateLimiter<String> limiter;
+
+    /**
+     * Registros descartados por tener la cola llena o superar su límite.
+     */
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * Hilo que escribe los registros.
+     */
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Crea el manejador y arranca su hilo escritor.
+     *
+     * @param delegates manejadores a los que se entregan los registros.
+     * @param capacity tamaño de la cola.
+     * @param limiter límite de frecuencia por texto de mensaje, o
+     * {@code null} para no limitar.
+     */
+    public AsyncLogHandler(Handler[] delegates, int capacity, RateLimiter<String> limiter) {
+        this.delegates = delegates.clone();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.limiter = limiter;
+        // Solo se encolan los registros que algún destino va a escribir
+        Level level = Level.OFF;
+        for (Handler handler : delegates) {
+            if (handler.getLevel().intValue() < level.intValue()) {
+                level = handler.getLevel();
+            }
+        }
+        setLevel(level);
+        writer = new Thread(this::writeLoop, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Sustituye los manejadores del logger raíz por un
+     * {@code AsyncLogHandler} que los usa como destino, con la configuración
+     * de {@code dbserver.dbConnection}. Si ya está instalado no hace nada.
+     */
+    public static synchronized void install() {
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+        for (Handler handler : handlers) {
+            if (handler instanceof AsyncLogHandler) {
+                return;
+            }
+        }
+        AsyncLogHandler async = new AsyncLogHandler(handlers,
+                ServerConfig.getInt("server.logBufferSize", 8192),
+                new RateLimiter<>(ServerConfig.getDouble("server.logRate", 10),
+                        ServerConfig.getInt("server.logBurst", 100), 60000));
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+        }
+        // LogManager cierra los manejadores del logger raíz al terminar el proceso
+        root.addHandler(async);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("log_dropped_total", async::getDroppedCount);
+        metrics.gauge("log_limited_total", async::getLimitedCount);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        boolean important = record.getLevel().intValue() >= Level.WARNING.intValue();
+        if (!important && limiter != null && record.getMessage() != null
+                && !limiter.tryAcquire(record.getMessage())) {
+            limited.increment();
+            return;
+        }
+        // Evita que el emisor se deduzca recorriendo la pila del hilo escritor
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+        if (queue.offer(record)) {
+            return;
+        }
+        if (important) {
+            try {
+                if (queue.offer(record, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException event) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropped.increment();
+    }
+
+    @Override
+    public void flush() {
+        for (Handler handler : delegates) {
+            handler.flush();
+        }
+    }
+
+    /**
+     * Deja de aceptar registros, escribe los pendientes y cierra los
+     * manejadores de destino.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler handler : delegates) {
+            handler.close();
+        }
+    }
+
+    /**
+     * @return registros descartados por tener la cola llena.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return registros descartados por superar el límite de su mensaje.
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * Bucle del hilo escritor: entrega los registros por lotes y, tras cada
+     * lote, avisa de los descartados desde el anterior aviso.
+     */
+    private void writeLoop() {
+        List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+        long reported = 0;
+        long reportedAt = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException event) {
+                if (!closed) {
+                    continue;
+                }
+                // Al cerrar se escribe lo que quede en la cola
+                queue.drainTo(batch);
+                write(batch);
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            write(batch);
+            batch.clear();
+
+            long discarded = dropped.sum() + limited.sum();
+            long now = System.currentTimeMillis();
+            if (discarded > reported && now - reportedAt >= REPORT_INTERVAL) {
+                LogRecord warning = new LogRecord(Level.WARNING, "Se han descartado {0} mensajes de registro.");
+                warning.setLoggerName(AsyncLogHandler.class.getName());
+                warning.setSourceClassName(AsyncLogHandler.class.getName());
+                warning.setParameters(new Object[]{String.valueOf(discarded - reported)});
+                reported = discarded;
+                reportedAt = now;
+                write(Collections.singletonList(warning));
+            }
+        }
+    }
+
+    /**
+     * Entrega un lote de registros a los manejadores de destino y los vacía.
+     *
+     * @param records los registros.
+     */
+    private void write(List<LogRecord> records) {
+        for (LogRecord record : records) {
+            for (Handler handler : delegates) {
+                try {
+                    handler.publish(record);
+                } catch (RuntimeException event) {
+                    reportError(null, event, ErrorManager.WRITE_FAILURE);
+                }
+            }
+        }
+        flush();
+    }
+}
@@ -0,0 +1,299 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Formato binario compacto para {@link Message}, alternativo a la
+ * serialización de Java.
+ *
+ * <p>
+ * No usa reflexión ni envía descriptores de clase: cada mensaje se escribe
+ * campo a campo. Un mensaje codificado ocupa:
+ * </p>
+ * <ul>
+ * <li>1 byte con el ordinal de {@link MessageType}.</li>
+ * <li>1 byte con el tipo de objeto: {@code 0} sin objeto, {@code 1}
+ * {@link User}.</li>
+ * <li>Para un {@code User}: nombre, calle, código postal, ciudad, login y
+ * contraseña como cadenas UTF-8 precedidas de su longitud en 2 bytes
+ * ({@code -1} para {@code null}), 1 byte de estado activo ({@code 0} no,
+ * {@code 1} sí, {@code 2} sin valor) y 4 bytes con el id de
+ * {@code res_users}.</li>
+ * </ul>
+ *
+ * <p>
+ * En el servidor bloqueante el cliente elige este formato enviando
+ * {@link #MAGIC} como primeros 4 bytes de la conexión; después cada mensaje,
+ * en ambos sentidos, va precedido de su longitud en 4 bytes. Un cliente que
+ * empieza con la cabecera de la serialización de Java sigue usando
+ * {@code ObjectInputStream}. El servidor espera estos primeros bytes como
+ * mucho {@code server.protocolDetectTimeout} milisegundos: un cliente de
+ * serialización que no escribe hasta recibir la cabecera del servidor, como
+ * antes de existir este formato, recibe la cabecera al agotarse la espera. Un
+ * cliente binario debe enviar {@link #MAGIC} antes de ese plazo. El cuerpo de
+ * cada trama debe ocupar exactamente su longitud. En {@link NioServer} cada
+ * trama que empieza por {@link #MAGIC} se decodifica con este formato y se
+ * responde igual.
+ * </p>
+ *
+ * @author Sergio
+ */
+public final class BinaryCodec {
+
+    /**
+     * Cabecera del formato: {@code "RSB"} seguido de la versión (1).
+     */
+    public static final int MAGIC = 0x52534201;
+
+    /**
+     * Tamaño de la cabecera y de los prefijos de longitud, en bytes.
+     */
+    public static final int MAGIC_SIZE = 4;
+
+    /**
+     * Tamaño máximo de un mensaje, en bytes.
+     */
+    private static final int MAX_MESSAGE_SIZE = 65536;
+
+    /**
+     * Tipos de objeto que puede llevar un mensaje.
+     */
+    private static final byte NO_OBJECT = 0;
+    private static final byte USER_OBJECT = 1;
+
+    /**
+     * Tipos de mensaje en orden de ordinal.
+     */
+    private static final MessageType[] TYPES = MessageType.values();
+
+    /**
+     * Constructor privado, la clase solo tiene métodos estáticos.
+     */
+    private BinaryCodec() {
+    }
+
+    /**
+     * Comprueba si una conexión empieza con la cabecera del formato binario.
+     * Si es así la consume; si no, deja el flujo como estaba. Si el flujo
+     * tiene un tiempo de espera y se agota antes de recibir la cabecera, el
+     * cliente está esperando al servidor y no usa el formato binario.
+     *
+     * @param in flujo de entrada que soporte {@code mark}.
+     * @return {@code true} si el cliente usa el formato binario.
+     * @throws IOException si falla la lectura.
+     */
+    public static boolean detect(InputStream in) throws IOException {
+        in.mark(MAGIC_SIZE);
+        DataInputStream data = new DataInputStream(in);
+        int header;
+        try {
+            header = data.readInt();
+        } catch (EOFException | SocketTimeoutException event) {
+            in.reset();
+            return false;
+        }
+        if (header == MAGIC) {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
+    /**
+     * Comprueba si un mensaje en memoria empieza con la cabecera del formato
+     * binario.
+     *
+     * @param buffer bytes del mensaje.
+     * @param offset posición de inicio.
+     * @param length número de bytes.
+     * @return {@code true} si el mensaje usa el formato binario.
+     */
+    public static boolean isBinary(byte[] buffer, int offset, int length) {
+        return length >= MAGIC_SIZE
+                && ((buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Lee un mensaje precedido de su longitud. Se leen exactamente los bytes
+     * indicados, de modo que el siguiente mensaje empieza donde debe.
+     *
+     * @param in flujo de entrada.
+     * @return el mensaje leído.
+     * @throws EOFException si el cliente ha cerrado la conexión.
+     * @throws IOException si el mensaje no es válido o falla la lectura.
+     */
+    public static Message readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_MESSAGE_SIZE) {
+            throw new StreamCorruptedException("Longitud de mensaje inválida: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    /**
+     * Decodifica un mensaje en memoria que debe ocupar exactamente
+     * {@code length} bytes.
+     *
+     * @param buffer bytes del mensaje.
+     * @param offset posición de inicio.
+     * @param length número de bytes.
+     * @return el mensaje leído.
+     * @throws IOException si el mensaje no es válido, le faltan bytes o le
+     * sobran.
+     */
+    public static Message decode(byte[] buffer, int offset, int length) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(buffer, offset, length);
+        Message message;
+        try {
+            message = read(new DataInputStream(bytes));
+        } catch (EOFException event) {
+            throw new StreamCorruptedException("Mensaje incompleto para su longitud: " + length);
+        }
+        if (bytes.available() > 0) {
+            throw new StreamCorruptedException("Sobran " + bytes.available() + " bytes tras el mensaje");
+        }
+        return message;
+    }
+
+    /**
+     * Escribe un mensaje precedido de su longitud y vacía el flujo.
+     *
+     * @param out flujo de salida.
+     * @param message el mensaje a escribir.
+     * @throws IOException si falla la escritura.
+     */
+    public static void writeFrame(DataOutputStream out, Message message) throws IOException {
+        byte[] body = encode(message);
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Codifica un mensaje sin cabecera ni longitud.
+     *
+     * @param message el mensaje a codificar.
+     * @return los bytes del mensaje.
+     * @throws IOException si el mensaje no se puede codificar.
+     */
+    public static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        write(new DataOutputStream(bytes), message);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Escribe los campos de un mensaje.
+     *
+     * @param out flujo de salida.
+     * @param message el mensaje a escribir.
+     * @throws IOException si falla la escritura.
+     */
+    public static void write(DataOutputStream out, Message message) throws IOException {
+        out.writeByte(message.getType().ordinal());
+        Object object = message.getObject();
+        if (object instanceof User) {
+            User user = (User) object;
+            out.writeByte(USER_OBJECT);
+            writeString(out, user.getName());
+            writeString(out, user.getStreet());
+            writeString(out, user.getZip());
+            writeString(out, user.getCity());
+            writeString(out, user.getLogin());
+            writeString(out, user.getPass());
+            Boolean active = user.getActive();
+            out.writeByte(active == null ? 2 : (active ? 1 : 0));
+            out.writeInt(user.getResUserId());
+        } else {
+            // Cualquier otro objeto (p. ej. una excepción) no viaja en este formato
+            out.writeByte(NO_OBJECT);
+        }
+    }
+
+    /**
+     * Lee los campos de un mensaje.
+     *
+     * @param in flujo de entrada.
+     * @return el mensaje leído.
+     * @throws IOException si el mensaje no es válido o falla la lectura.
+     */
+    public static Message read(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type >= TYPES.length) {
+            throw new StreamCorruptedException("Tipo de mensaje desconocido: " + type);
+        }
+        int kind = in.readUnsignedByte();
+        if (kind == NO_OBJECT) {
+            return new Message(TYPES[type], null);
+        }
+        if (kind != USER_OBJECT) {
+            throw new StreamCorruptedException("Tipo de objeto desconocido: " + kind);
+        }
+        User user = new User();
+        user.setName(readString(in));
+        user.setStreet(readString(in));
+        user.setZip(readString(in));
+        user.setCity(readString(in));
+        user.setLogin(readString(in));
+        user.setPass(readString(in));
+        int active = in.readUnsignedByte();
+        if (active != 2) {
+            user.setActive(active == 1);
+        }
+        user.setResUserId(in.readInt());
+        return new Message(TYPES[type], user);
+    }
+
+    /**
+     * Escribe una cadena UTF-8 precedida de su longitud.
+     *
+     * @param out flujo de salida.
+     * @param value la cadena, o {@code null}.
+     * @throws IOException si la cadena es demasiado larga o falla la
+     * escritura.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new StreamCorruptedException("Cadena demasiado larga: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Lee una cadena UTF-8 precedida de su longitud.
+     *
+     * @param in flujo de entrada.
+     * @return la cadena, o {@code null}.
+     * @throws IOException si falla la lectura.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
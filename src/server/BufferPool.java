@@ -0,0 +1,82 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de {@link ByteBuffer} de tamaño fijo para leer las tramas de
+ * {@link NioServer} sin reservar memoria en cada petición.
+ *
+ * <p>
+ * Las tramas que no caben en un búfer del pool reciben uno propio que no se
+ * recicla. El pool guarda como máximo {@code maxPooled} búferes libres.
+ * </p>
+ *
+ * @author Sergio
+ */
+class BufferPool {
+
+    /**
+     * Búferes libres.
+     */
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Número de búferes libres, para no recorrer la cola.
+     */
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /**
+     * Capacidad de cada búfer y número máximo de búferes libres.
+     */
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * Crea un pool vacío.
+     *
+     * @param bufferSize capacidad en bytes de cada búfer.
+     * @param maxPooled número máximo de búferes libres que se conservan.
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Obtiene un búfer con el límite ajustado al tamaño pedido.
+     *
+     * @param size número de bytes que se van a leer.
+     * @return un búfer con posición 0 y límite {@code size}.
+     */
+    ByteBuffer acquire(int size) {
+        if (size > bufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        } else {
+            freeCount.decrementAndGet();
+            buffer.clear();
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Devuelve un búfer al pool. Los búferes de otro tamaño, o los que
+     * exceden el máximo de libres, se descartan.
+     *
+     * @param buffer el búfer que ya no se usa.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && freeCount.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else if (buffer.capacity() == bufferSize) {
+            freeCount.decrementAndGet();
+        }
+    }
+}
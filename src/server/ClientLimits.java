@@ -0,0 +1,157 @@
+package server;
+
+import dbserver.ServerConfig;
+import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Límites de frecuencia de los clientes, comprobados antes de que una
+ * petición llegue al {@code Dao}.
+ *
+ * <p>
+ * Cada dirección IP tiene un cubo de fichas que limita cuántas peticiones
+ * puede hacer, de modo que un único cliente no acapare las conexiones a la
+ * base de datos. Además, cada login tiene un límite más estricto de inicios de
+ * sesión fallidos: al agotarlo, sus inicios de sesión se rechazan sin
+ * consultar la base de datos hasta que recupera fichas, y un inicio de sesión
+ * correcto lo restablece.
+ * </p>
+ *
+ * <p>
+ * Se configura con {@code server.rateLimit*} y
+ * {@code server.signInFailure*} en {@code dbserver.dbConnection}.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class ClientLimits {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ClientLimits.class.getName());
+
+    /**
+     * Límite de peticiones por dirección IP.
+     */
+    private final RateLimiter<InetAddress> clients;
+
+    /**
+     * Límite de inicios de sesión fallidos por login.
+     */
+    private final RateLimiter<String> failedSignIns;
+
+    /**
+     * Crea los límites con la configuración de {@code dbserver.dbConnection}.
+     */
+    public ClientLimits() {
+        this(new RateLimiter<>(
+                ServerConfig.getDouble("server.rateLimitRate", 50),
+                ServerConfig.getInt("server.rateLimitBurst", 100),
+                ServerConfig.getLong("server.rateLimitIdle", 60000)),
+                new RateLimiter<>(
+                        ServerConfig.getDouble("server.signInFailureRate", 0.1),
+                        ServerConfig.getInt("server.signInFailureBurst", 5),
+                        ServerConfig.getLong("server.rateLimitIdle", 60000)));
+    }
+
+    /**
+     * Crea los límites con los limitadores indicados.
+     *
+     * @param clients límite de peticiones por dirección IP.
+     * @param failedSignIns límite de inicios de sesión fallidos por login.
+     */
+    public ClientLimits(RateLimiter<InetAddress> clients, RateLimiter<String> failedSignIns) {
+        this.clients = clients;
+        this.failedSignIns = failedSignIns;
+    }
+
+    /**
+     * Consume una petición del cupo de una dirección IP.
+     *
+     * @param address la dirección del cliente.
+     * @return {@code true} si la petición puede atenderse.
+     */
+    public boolean allowClient(InetAddress address) {
+        if (clients.tryAcquire(address)) {
+            return true;
+        }
+        LOGGER.log(Level.FINE, "Cliente limitado por exceso de peticiones: {0}", address);
+        return false;
+    }
+
+    /**
+     * Comprueba si una petición puede llegar al {@code Dao}.
+     *
+     * @param request la petición recibida.
+     * @return la respuesta de rechazo, o {@code null} si puede atenderse.
+     */
+    public Message check(Message request) {
+        String login = signInLogin(request);
+        if (login != null && !failedSignIns.isAllowed(login)) {
+            LOGGER.log(Level.FINE, "Inicio de sesión limitado por fallos repetidos: {0}", login);
+            return new Message(MessageType.SIGNIN_ERROR, null);
+        }
+        return null;
+    }
+
+    /**
+     * Anota el resultado de una petición atendida: un inicio de sesión
+     * fallido consume cupo del login y uno correcto lo restablece.
+     *
+     * @param request la petición.
+     * @param response la respuesta enviada.
+     */
+    public void record(Message request, Message response) {
+        String login = signInLogin(request);
+        if (login == null || response == null) {
+            return;
+        }
+        if (response.getType() == MessageType.SIGNIN_ERROR) {
+            failedSignIns.tryAcquire(login);
+        } else if (response.getType() == MessageType.LOGIN_OK) {
+            failedSignIns.reset(login);
+        }
+    }
+
+    /**
+     * @return límite de peticiones por dirección IP.
+     */
+    public RateLimiter<InetAddress> getClientLimiter() {
+        return clients;
+    }
+
+    /**
+     * @return límite de inicios de sesión fallidos por login.
+     */
+    public RateLimiter<String> getFailedSignInLimiter() {
+        return failedSignIns;
+    }
+
+    /**
+     * Respuesta para una petición rechazada por superar el límite de su
+     * dirección IP.
+     *
+     * @return el mensaje de rechazo.
+     */
+    public static Message limited() {
+        return new Message(MessageType.CONNECTION_ERROR, null);
+    }
+
+    /**
+     * Devuelve el login de una petición de inicio de sesión.
+     *
+     * @param request la petición.
+     * @return el login, o {@code null} si no es un inicio de sesión válido.
+     */
+    private static String signInLogin(Message request) {
+        if (request.getType() != MessageType.SIGN_IN_REQUEST || !(request.getObject() instanceof User)) {
+            return null;
+        }
+        return ((User) request.getObject()).getLogin();
+    }
+}
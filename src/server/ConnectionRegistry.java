@@ -0,0 +1,108 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro de las conexiones de clientes que el servidor está atendiendo.
+ *
+ * <p>
+ * Cada {@link Worker} se registra al ser aceptado y se elimina él mismo al
+ * terminar, de modo que el registro solo contiene conexiones vivas. Informa de
+ * la concurrencia actual y del máximo alcanzado, y permite al servidor cerrar y
+ * esperar únicamente a las conexiones que siguen en curso al pararse.
+ * </p>
+ *
+ * @author Sergio
+ */
+public class ConnectionRegistry {
+
+    /**
+     * Conexiones activas en este momento.
+     */
+    private final Set<Worker> active = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Número de conexiones activas y máximo alcanzado.
+     */
+    private final AtomicInteger current = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * Monitor para avisar a quien espera a que el registro se vacíe.
+     */
+    private final Object emptyLock = new Object();
+
+    /**
+     * Registra una conexión nueva.
+     *
+     * @param worker el {@code Worker} que atiende la conexión.
+     */
+    public void register(Worker worker) {
+        if (active.add(worker)) {
+            int now = current.incrementAndGet();
+            peak.accumulateAndGet(now, Math::max);
+        }
+    }
+
+    /**
+     * Elimina una conexión que ha terminado.
+     *
+     * @param worker el {@code Worker} que atendía la conexión.
+     */
+    public void unregister(Worker worker) {
+        if (active.remove(worker) && current.decrementAndGet() == 0) {
+            synchronized (emptyLock) {
+                emptyLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return número de conexiones activas en este momento.
+     */
+    public int getActiveCount() {
+        return current.get();
+    }
+
+    /**
+     * @return número máximo de conexiones activas a la vez desde el arranque.
+     */
+    public int getPeakCount() {
+        return peak.get();
+    }
+
+    /**
+     * Cierra los sockets de todas las conexiones activas para desbloquear a los
+     * {@code Worker} que esperan datos del cliente.
+     */
+    public void closeAll() {
+        for (Worker worker : active) {
+            worker.abort();
+        }
+    }
+
+    /**
+     * Espera a que terminen todas las conexiones activas.
+     *
+     * @param timeout tiempo máximo de espera.
+     * @param unit unidad del tiempo de espera.
+     * @return {@code true} si no queda ninguna conexión activa.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (emptyLock) {
+            while (current.get() > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                emptyLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+}
@@ -1,14 +1,24 @@
 package server;
 
+import dbserver.ApplicationServerFactory;
+import dbserver.ServerConfig;
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import metrics.MetricsExporter;
+import metrics.MetricsRegistry;
 import utilidades.Closeable;
 
 /**
@@ -16,9 +26,10 @@ import utilidades.Closeable;
  *
  * <p>
  * Este servidor acepta conexiones de múltiples clientes en un puerto
- * especificado y lanza un nuevo hilo para cada cliente, permitiendo la conexión
- * simultánea de varios clientes. Incluye un mecanismo de interrupción mediante
- * la tecla ENTER para detener el servidor cuando sea necesario.
+ * especificado y atiende a cada cliente en un ejecutor configurable (ver
+ * {@link WorkerExecutorFactory}), permitiendo la conexión simultánea de varios
+ * clientes con un uso de memoria acotado. Incluye un mecanismo de interrupción
+ * mediante la tecla ENTER para detener el servidor cuando sea necesario.
  * </p>
  *
  * <p>
@@ -32,6 +43,48 @@ import utilidades.Closeable;
  * conexiones.
  * </p>
  *
+ * <p>
+ * Con {@code server.frontEnd=nio} se usa en su lugar el servidor no bloqueante
+ * {@link NioServer}, que atiende con pocos hilos a muchos clientes
+ * mayoritariamente inactivos usando tramas con longitud.
+ * </p>
+ *
+ * <p>
+ * Con {@code server.admission=true} las peticiones pasan por un
+ * {@link AdmissionController}, que limita las que se atienden a la vez y
+ * rechaza pronto las que sobran cuando el servidor se satura. Con
+ * {@code server.rateLimit=true} se aplican además los límites por cliente de
+ * {@link ClientLimits}.
+ * </p>
+ *
+ * <p>
+ * Las métricas del servidor, el pool y el DAO se recogen en
+ * {@link MetricsRegistry} y, con {@code server.metrics=true}, se publican por
+ * JMX y en {@code http://server.metricsHost:server.metricsPort/metrics}.
+ * </p>
+ *
+ * <p>
+ * Con {@code server.asyncLogging=true} los registros de log se escriben desde
+ * un hilo aparte mediante {@link AsyncLogHandler}.
+ * </p>
+ *
+ * <p>
+ * En el modo bloqueante, con {@code server.acceptors} mayor que 1 se usan
+ * varios {@link Acceptor}, cada uno con su hilo, su socket de escucha con
+ * {@code SO_REUSEPORT} y su propio ejecutor, para repartir las ráfagas de
+ * conexiones. {@code server.acceptBacklog} fija la cola de conexiones
+ * pendientes de aceptar de cada socket.
+ * </p>
+ *
+ * <p>
+ * Antes de abrir el puerto, el servidor crea la
+ * {@link ApplicationServerFactory}, abre y valida sus pools, prepara las
+ * sentencias y ejecuta {@code server.warmUpIterations} inicios de sesión de
+ * prueba con {@link Warmup} para que el JIT compile el código más usado. Solo
+ * entonces se informa de que está listo, también en la métrica
+ * {@code server_ready}.
+ * </p>
+ *
  * @author Sergio
  */
 public class MainServer {
@@ -49,7 +102,12 @@ public class MainServer {
     /**
      * Variable de control para mantener el estado activo/inactivo del servidor.
      */
-    private boolean running = true;
+    private volatile boolean running = true;
+
+    /**
+     * Indica si el servidor ha terminado el arranque y acepta clientes.
+     */
+    private volatile boolean ready;
 
     /**
      * Objeto {@code Closeable} para manejar el pool de conexiones.
@@ -57,9 +115,51 @@ public class MainServer {
     private Closeable pool;
 
     /**
-     * Lista sincronizada para almacenar los hilos de cada cliente conectado.
+     * Ejecutor en el que se atiende a cada cliente conectado.
      */
-    private List<Thread> threadsList;
+    private ExecutorService executor;
+
+    /**
+     * Registro de las conexiones de clientes que siguen en curso.
+     */
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+
+    /**
+     * Servidor no bloqueante, si se ha elegido ese modo.
+     */
+    private volatile NioServer nioServer;
+
+    /**
+     * Aceptadores en marcha, si se usan varios.
+     */
+    private final List<Acceptor> acceptors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Control de admisión de peticiones, o {@code null} si está desactivado.
+     */
+    private final AdmissionController admission;
+
+    /**
+     * Límites de frecuencia de los clientes, o {@code null} si están
+     * desactivados.
+     */
+    private final ClientLimits limits;
+
+    /**
+     * Publicación de las métricas, o {@code null} si está desactivada.
+     */
+    private MetricsExporter metricsExporter;
+
+    /**
+     * Conexiones aceptadas y rechazadas, para las métricas.
+     */
+    private final LongAdder accepted = MetricsRegistry.getInstance().counter("server_accepted_total");
+    private final LongAdder rejected = MetricsRegistry.getInstance().counter("server_rejected_total");
+
+    /**
+     * Tiempo máximo, en segundos, que se espera a los clientes al parar.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
 
     /**
      * Constructor que inicializa el servidor con el puerto especificado.
@@ -68,7 +168,10 @@ public class MainServer {
      */
     public MainServer(int PORT) {
         this.PORT = PORT;
-        threadsList = Collections.synchronizedList(new ArrayList<>());
+        executor = WorkerExecutorFactory.create();
+        admission = ServerConfig.getBoolean("server.admission", false) ? new AdmissionController() : null;
+        limits = ServerConfig.getBoolean("server.rateLimit", false) ? new ClientLimits() : null;
+        registerMetrics();
     }
 
     /**
@@ -87,21 +190,51 @@ public class MainServer {
         Thread exitThread = new Thread(detector);
         exitThread.start();
 
+        if (ServerConfig.getBoolean("server.asyncLogging", false)) {
+            AsyncLogHandler.install();
+        }
+        if (ServerConfig.getBoolean("server.metrics", false)) {
+            startMetrics();
+        }
+
+        prepare();
+        if (!running) {
+            return;
+        }
+
+        if ("nio".equalsIgnoreCase(ServerConfig.getString("server.frontEnd", "blocking"))) {
+            initNio();
+            return;
+        }
+
+        int acceptorCount = ServerConfig.getInt("server.acceptors", 1);
+        int backlog = ServerConfig.getInt("server.acceptBacklog", 50);
+        if (acceptorCount > 1) {
+            initAcceptors(acceptorCount, backlog);
+            return;
+        }
+
         // Usamos un bloque try-with-resources para asegurar el cierre del ServerSocket
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        try (ServerSocket serverSocket = new ServerSocket(PORT, backlog)) {
             LOGGER.info("Servidor iniciado en el puerto " + PORT);
 
             // Bucle que sigue aceptando clientes mientras el servidor esté en ejecución
             while (running) {
                 // Espera y acepta la conexión de un cliente
                 Socket socketClient = serverSocket.accept();
-                LOGGER.info("Cliente conectado desde: " + socketClient.getInetAddress());
+                LOGGER.log(Level.INFO, "Cliente conectado desde: {0}", socketClient.getInetAddress());
+                accepted.increment();
 
-                // Crea y lanza un nuevo hilo para manejar al cliente
-                Worker worker = new Worker(socketClient);
-                Thread thread = new Thread(worker);
-                threadsList.add(thread);
-                thread.start();
+                // Entrega el cliente al ejecutor; si está saturado se rechaza
+                Worker worker = new Worker(socketClient, registry, admission, limits);
+                try {
+                    executor.execute(worker);
+                } catch (RejectedExecutionException event) {
+                    LOGGER.log(Level.WARNING, "Servidor saturado, se rechaza al cliente: {0}", socketClient.getInetAddress());
+                    rejected.increment();
+                    worker.finish();
+                    closeQuietly(socketClient);
+                }
             }
         } catch (Exception event) {
             LOGGER.warning("Error al crear Server Socket: " + event.getMessage());
@@ -111,12 +244,142 @@ public class MainServer {
         }
     }
 
+    /**
+     * Ejecuta varios aceptadores hasta que se detenga el servidor. Si la
+     * plataforma no admite {@code SO_REUSEPORT}, todos aceptan del mismo
+     * socket de escucha.
+     *
+     * @param count número de aceptadores.
+     * @param backlog cola de conexiones pendientes de cada socket.
+     */
+    private void initAcceptors(int count, int backlog) {
+        boolean reusePort = Acceptor.isReusePortSupported();
+        if (!reusePort) {
+            LOGGER.warning("SO_REUSEPORT no disponible; los aceptadores comparten el socket de escucha.");
+        }
+        List<Thread> threads = new ArrayList<>(count);
+        try {
+            ServerSocketChannel shared = reusePort ? null : Acceptor.open(PORT, backlog, false);
+            for (int i = 0; i < count && running; i++) {
+                ServerSocketChannel channel = reusePort ? Acceptor.open(PORT, backlog, true) : shared;
+                Acceptor acceptor = new Acceptor(i, channel, WorkerExecutorFactory.create(count),
+                        registry, admission, limits);
+                acceptors.add(acceptor);
+                Thread thread = new Thread(acceptor, "acceptor-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            LOGGER.log(Level.INFO, "Servidor iniciado en el puerto {0} con {1} aceptadores.",
+                    new Object[]{String.valueOf(PORT), count});
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "Error al crear Server Socket: {0}", event.getMessage());
+        } catch (InterruptedException event) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopServer();
+            LOGGER.info("Servidor parado");
+        }
+    }
+
+    /**
+     * Ejecuta el servidor no bloqueante hasta que se detenga.
+     */
+    private void initNio() {
+        try {
+            nioServer = new NioServer(PORT, executor, admission, limits);
+            nioServer.run();
+        } catch (IOException event) {
+            LOGGER.warning("Error al crear Server Socket: " + event.getMessage());
+        } finally {
+            stopServer();
+            LOGGER.info("Servidor parado");
+        }
+    }
+
+    /**
+     * Fase de arranque previa a abrir el puerto: crea la factoría, abre sus
+     * pools, prepara las sentencias y calienta el servidor. Así el primer
+     * cliente no paga la apertura de las conexiones ni la compilación. Si no
+     * se puede crear la factoría, el servidor se detiene sin abrir el puerto.
+     */
+    private void prepare() {
+        long start = System.nanoTime();
+        ApplicationServerFactory factory;
+        try {
+            factory = ApplicationServerFactory.getInstance();
+        } catch (RuntimeException event) {
+            LOGGER.log(Level.SEVERE, "No se pudo preparar el acceso a la base de datos: {0}", event.toString());
+            stopServer();
+            return;
+        }
+        pool = factory.close();
+        factory.prestart();
+        int iterations = Warmup.run(factory, ServerConfig.getInt("server.warmUpIterations", 0));
+        ready = true;
+        LOGGER.log(Level.INFO, "Servidor listo en {0} ms tras {1} iteraciones de calentamiento.",
+                new Object[]{String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), String.valueOf(iterations)});
+    }
+
+    /**
+     * Indica si el servidor ha terminado el arranque y el calentamiento.
+     *
+     * @return {@code true} si está listo para atender clientes.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Registra en las métricas los valores del servidor que se leen bajo
+     * demanda: conexiones activas, control de admisión y límites de
+     * frecuencia.
+     */
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("server_active_connections", () -> {
+            NioServer nio = nioServer;
+            return nio != null ? nio.getActiveConnections() : registry.getActiveCount();
+        });
+        metrics.gauge("server_peak_connections", registry::getPeakCount);
+        metrics.gauge("server_ready", () -> ready ? 1 : 0);
+        if (admission != null) {
+            metrics.gauge("admission_limit", admission::getLimit);
+            metrics.gauge("admission_in_flight", admission::getInFlight);
+            metrics.gauge("admission_queued", admission::getQueued);
+            metrics.gauge("admission_rejected_total", admission::getRejectedCount);
+        }
+        if (limits != null) {
+            metrics.gauge("rate_limit_client_rejected_total", limits.getClientLimiter()::getLimitedCount);
+            metrics.gauge("rate_limit_login_rejected_total", limits.getFailedSignInLimiter()::getLimitedCount);
+        }
+    }
+
+    /**
+     * Publica las métricas por JMX y por HTTP. Un fallo al abrir el puerto de
+     * métricas no impide que el servidor arranque.
+     */
+    private void startMetrics() {
+        metricsExporter = new MetricsExporter(MetricsRegistry.getInstance());
+        metricsExporter.registerMBean();
+        try {
+            metricsExporter.startHttp(ServerConfig.getString("server.metricsHost", "127.0.0.1"),
+                    ServerConfig.getInt("server.metricsPort", 9464));
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "No se pudo abrir el puerto de métricas: {0}", event.getMessage());
+        }
+    }
+
     /**
      * Detiene el servidor y cierra todas las conexiones activas.
      *
      * <p>
-     * Este método interrumpe y espera a que todos los hilos de clientes
-     * finalicen, asegurando una detención limpia del servidor.
+     * Este método interrumpe los hilos de clientes, cierra las conexiones que
+     * siguen en curso y espera, como máximo {@code SHUTDOWN_TIMEOUT} segundos,
+     * solo a que estas finalicen, asegurando una detención limpia del
+     * servidor.
      * </p>
      * <p>
      * También cierra el pool de conexiones si está en uso.
@@ -124,21 +387,30 @@ public class MainServer {
      */
     public void stopServer() {
         running = false;
+        ready = false;
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
 
-        // Intenta interrumpir todos los hilos activos
-        for (Thread thread : threadsList) {
-            if (thread.isAlive()) {
-                thread.interrupt();
-            }
+        // Interrumpe los clientes activos y descarta los que esperan en cola
+        for (Acceptor acceptor : acceptors) {
+            acceptor.stop();
+            shutdownWorkers(acceptor.getExecutor());
         }
+        shutdownWorkers(executor);
+        registry.closeAll();
 
-        // Espera a que cada hilo termine antes de cerrar el servidor
-        for (Thread thread : threadsList) {
-            try {
-                thread.join(); // Espera a que el hilo finalice
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Restablece el estado de interrupción
+        // Espera a que las conexiones en curso terminen antes de cerrar el servidor
+        try {
+            if (!registry.awaitEmpty(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "{0} clientes no han terminado a tiempo.", registry.getActiveCount());
             }
+            LOGGER.log(Level.INFO, "Máximo de clientes simultáneos: {0}", registry.getPeakCount());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restablece el estado de interrupción
         }
 
         // Cierra el pool de conexiones si está en uso
@@ -147,6 +419,63 @@ public class MainServer {
         }
     }
 
+    /**
+     * Detiene un ejecutor de clientes y cierra las conexiones de los que
+     * esperaban en su cola.
+     *
+     * @param workers el ejecutor.
+     */
+    private void shutdownWorkers(ExecutorService workers) {
+        for (Runnable pending : workers.shutdownNow()) {
+            if (pending instanceof Worker) {
+                ((Worker) pending).abort();
+                ((Worker) pending).finish();
+            }
+        }
+    }
+
+    /**
+     * Devuelve el registro de conexiones activas, con la concurrencia actual y
+     * máxima.
+     *
+     * @return el registro de conexiones.
+     */
+    public ConnectionRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Devuelve el control de admisión de peticiones.
+     *
+     * @return el control de admisión, o {@code null} si está desactivado.
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Devuelve los límites de frecuencia de los clientes.
+     *
+     * @return los límites, o {@code null} si están desactivados.
+     */
+    public ClientLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Cierra el socket de un cliente rechazado registrando, sin propagar,
+     * cualquier error.
+     *
+     * @param socketClient el socket a cerrar.
+     */
+    private void closeQuietly(Socket socketClient) {
+        try {
+            socketClient.close();
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "Error al cerrar el socket: {0}", event.getMessage());
+        }
+    }
+
     /**
      * Método principal para iniciar el servidor.
      *
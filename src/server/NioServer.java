@@ -0,0 +1,583 @@
+package server;
+
+import dbserver.ServerConfig;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import metrics.MetricsRegistry;
+import utilidades.Message;
+import utilidades.MessageType;
+
+/**
+ * Servidor no bloqueante basado en {@link Selector}, alternativo al bucle de
+ * {@code accept()} bloqueante de {@link MainServer}.
+ *
+ * <p>
+ * Un único hilo acepta conexiones y lee de todos los sockets sin bloquearse.
+ * Cada petición es una trama formada por una longitud de 4 bytes seguida del
+ * {@link Message} serializado, o de {@link BinaryCodec#MAGIC} y el mensaje en
+ * formato binario; la respuesta usa el mismo formato que la petición. Las
+ * tramas se leen en búferes de un {@link BufferPool} y, solo cuando una trama
+ * está completa, se entrega al ejecutor de clientes para resolverla. La respuesta se devuelve con el mismo
+ * formato de trama y la conexión queda abierta para más peticiones, de modo
+ * que los clientes inactivos no ocupan ningún hilo.
+ * </p>
+ *
+ * <p>
+ * Cada conexión tiene como máximo una petición en curso: mientras se resuelve
+ * no se leen más datos de ella, lo que mantiene el orden de las respuestas.
+ * </p>
+ *
+ * <p>
+ * Con un {@link AdmissionController}, cada trama completa pide plaza antes de
+ * entregarse al ejecutor; las que no la obtienen se responden con
+ * {@code CONNECTION_ERROR} sin llegar a decodificarse, igual que las de los
+ * clientes que superan el límite de peticiones de su dirección IP (ver
+ * {@link ClientLimits}).
+ * </p>
+ *
+ * @author Sergio
+ */
+public class NioServer {
+
+    /**
+     * Logger para registrar eventos y errores del servidor.
+     */
+    private static final Logger LOGGER = Logger.getLogger(NioServer.class.getName());
+
+    /**
+     * Tamaño en bytes de la cabecera de longitud de cada trama.
+     */
+    static final int HEADER_SIZE = 4;
+
+    /**
+     * Puerto en el que escucha el servidor.
+     */
+    private final int port;
+
+    /**
+     * Ejecutor en el que se resuelven las peticiones completas.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Pool de búferes de lectura.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Tamaño máximo de trama aceptado, en bytes.
+     */
+    private final int maxFrameSize;
+
+    /**
+     * Control de admisión de peticiones, o {@code null} si no se usa.
+     */
+    private final AdmissionController admission;
+
+    /**
+     * Límites de frecuencia de los clientes, o {@code null} si no se usan.
+     */
+    private final ClientLimits limits;
+
+    /**
+     * Tareas que deben ejecutarse en el hilo del selector, como activar la
+     * escritura de una respuesta preparada por otro hilo.
+     */
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Número de conexiones abiertas.
+     */
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    /**
+     * Conexiones aceptadas, para las métricas.
+     */
+    private final LongAdder accepted = MetricsRegistry.getInstance().counter("server_accepted_total");
+
+    /**
+     * Selector del servidor; {@code null} hasta que arranca.
+     */
+    private volatile Selector selector;
+
+    /**
+     * Variable de control para mantener el estado activo/inactivo.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Crea el servidor con la configuración de {@code dbserver.dbConnection}.
+     *
+     * @param port puerto en el que escuchar.
+     * @param executor ejecutor para resolver las peticiones.
+     */
+    public NioServer(int port, ExecutorService executor) {
+        this(port, executor, null);
+    }
+
+    /**
+     * Crea el servidor con la configuración de {@code dbserver.dbConnection}
+     * y sometiendo las peticiones al control de admisión.
+     *
+     * @param port puerto en el que escuchar.
+     * @param executor ejecutor para resolver las peticiones.
+     * @param admission control de admisión, o {@code null}.
+     */
+    public NioServer(int port, ExecutorService executor, AdmissionController admission) {
+        this(port, executor, admission, null);
+    }
+
+    /**
+     * Crea el servidor con la configuración de {@code dbserver.dbConnection},
+     * sometiendo las peticiones al control de admisión y a los límites de
+     * frecuencia.
+     *
+     * @param port puerto en el que escuchar.
+     * @param executor ejecutor para resolver las peticiones.
+     * @param admission control de admisión, o {@code null}.
+     * @param limits límites de frecuencia de los clientes, o {@code null}.
+     */
+    public NioServer(int port, ExecutorService executor, AdmissionController admission, ClientLimits limits) {
+        this.port = port;
+        this.executor = executor;
+        this.admission = admission;
+        this.limits = limits;
+        this.bufferPool = new BufferPool(
+                ServerConfig.getInt("server.nioBufferSize", 8192),
+                ServerConfig.getInt("server.nioPooledBuffers", 1024));
+        this.maxFrameSize = ServerConfig.getInt("server.nioMaxFrameSize", 65536);
+    }
+
+    /**
+     * Ejecuta el bucle del selector en el hilo actual hasta que se llame a
+     * {@link #stop()}.
+     *
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public void run() throws IOException {
+        try (Selector sel = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(sel, SelectionKey.OP_ACCEPT);
+            selector = sel;
+            LOGGER.info("Servidor NIO iniciado en el puerto " + port);
+
+            while (running) {
+                sel.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+            }
+
+            // Cierra todas las conexiones de clientes
+            for (SelectionKey key : sel.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene el bucle del selector.
+     */
+    public void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * @return número de conexiones de clientes abiertas.
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Atiende un evento del selector.
+     *
+     * @param key la clave con el evento listo.
+     */
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept((ServerSocketChannel) key.channel());
+                return;
+            }
+            if (key.isReadable()) {
+                read(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key);
+            }
+        } catch (IOException event) {
+            LOGGER.log(Level.FINE, "Conexión cerrada por error de E/S: {0}", event.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * Acepta todas las conexiones pendientes y las registra para lectura.
+     *
+     * @param serverChannel el canal de escucha.
+     * @throws IOException si falla la aceptación.
+     */
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            activeConnections.incrementAndGet();
+            accepted.increment();
+        }
+    }
+
+    /**
+     * Lee datos de un cliente. Cuando la trama está completa deja de leer de
+     * esa conexión y entrega la petición al ejecutor.
+     *
+     * @param key la clave del cliente.
+     * @throws IOException si falla la lectura.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        if (connection.body == null) {
+            if (channel.read(connection.header) < 0) {
+                close(key);
+                return;
+            }
+            if (connection.header.hasRemaining()) {
+                return;
+            }
+            connection.header.flip();
+            int length = connection.header.getInt();
+            connection.header.clear();
+            if (length <= 0 || length > maxFrameSize) {
+                LOGGER.log(Level.WARNING, "Trama de tamaño inválido ({0} bytes), se cierra la conexión.", length);
+                close(key);
+                return;
+            }
+            connection.body = bufferPool.acquire(length);
+        }
+
+        if (channel.read(connection.body) < 0) {
+            close(key);
+            return;
+        }
+        if (connection.body.hasRemaining()) {
+            return;
+        }
+
+        // Trama completa: se deja de leer hasta haber respondido
+        ByteBuffer frame = connection.body;
+        connection.body = null;
+        frame.flip();
+        key.interestOps(0);
+        if (limits != null && !limits.allowClient(channel.socket().getInetAddress())) {
+            reject(key, frame, ClientLimits.limited());
+        } else if (admission == null) {
+            execute(key, frame);
+        } else {
+            admission.submit(() -> execute(key, frame), () -> reject(key, frame, AdmissionController.overloaded()));
+        }
+    }
+
+    /**
+     * Entrega una trama completa al ejecutor. Puede llamarse desde el hilo del
+     * selector o, si la petición esperaba plaza, desde el hilo que la libera.
+     *
+     * @param key la clave del cliente.
+     * @param frame el contenido de la trama.
+     */
+    private void execute(SelectionKey key, ByteBuffer frame) {
+        long admittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> process(key, frame, admittedAt));
+        } catch (RejectedExecutionException event) {
+            bufferPool.release(frame);
+            if (admission != null) {
+                admission.release(0, true);
+            }
+            LOGGER.warning("Servidor saturado, se cierra la conexión del cliente.");
+            selectorTasks.add(() -> close(key));
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Responde a una trama rechazada sin decodificarla.
+     *
+     * @param key la clave del cliente.
+     * @param frame el contenido de la trama.
+     * @param response la respuesta de rechazo.
+     */
+    private void reject(SelectionKey key, ByteBuffer frame, Message response) {
+        boolean binary = BinaryCodec.isBinary(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        bufferPool.release(frame);
+        respond(key, binary, response);
+    }
+
+    /**
+     * Decodifica una petición completa en un hilo del ejecutor y la resuelve
+     * de forma asíncrona, de modo que el hilo queda libre mientras se consulta
+     * la base de datos. La respuesta se codifica en el hilo que completa la
+     * operación y su envío se programa en el hilo del selector.
+     *
+     * @param key la clave del cliente.
+     * @param frame el contenido de la trama.
+     * @param admittedAt instante, en {@link System#nanoTime()}, en que se
+     * admitió la petición.
+     */
+    private void process(SelectionKey key, ByteBuffer frame, long admittedAt) {
+        Message request;
+        byte[] array = frame.array();
+        int offset = frame.arrayOffset() + frame.position();
+        boolean binary = BinaryCodec.isBinary(array, offset, frame.remaining());
+        try {
+            request = binary
+                    ? decodeBinary(array, offset, frame.remaining())
+                    : decode(array, offset, frame.remaining());
+        } catch (IOException | ClassNotFoundException | RuntimeException event) {
+            LOGGER.log(Level.WARNING, "Petición no válida: {0}", event.getMessage());
+            request = null;
+        } finally {
+            bufferPool.release(frame);
+        }
+
+        Message rejected = request == null
+                ? new Message(MessageType.BAD_RESPONSE, null)
+                : limits == null ? null : limits.check(request);
+        if (rejected != null) {
+            if (admission != null) {
+                admission.cancel();
+            }
+            respond(key, binary, rejected);
+            return;
+        }
+        Message decoded = request;
+        long start = System.nanoTime();
+        CompletableFuture<Message> pending;
+        try {
+            pending = Worker.dispatchAsync(request);
+        } catch (RuntimeException event) {
+            // Sin futuro no habría respuesta ni se liberaría la plaza de admisión
+            LOGGER.log(Level.WARNING, "Petición no válida: {0}", event.toString());
+            if (admission != null) {
+                admission.cancel();
+            }
+            respond(key, binary, new Message(MessageType.BAD_RESPONSE, null));
+            return;
+        }
+        pending.whenComplete((response, error) -> {
+            Worker.recordLatency(decoded, start);
+            if (error != null) {
+                LOGGER.log(Level.SEVERE, "Error al resolver la petición: {0}", error.toString());
+                response = new Message(MessageType.BAD_RESPONSE, null);
+            }
+            if (admission != null) {
+                admission.release(System.nanoTime() - admittedAt,
+                        response.getType() == MessageType.CONNECTION_ERROR);
+            }
+            if (limits != null) {
+                limits.record(decoded, response);
+            }
+            respond(key, binary, response);
+        });
+    }
+
+    /**
+     * Codifica la respuesta y programa su envío en el hilo del selector.
+     *
+     * @param key la clave del cliente.
+     * @param binary si la respuesta va en el formato binario.
+     * @param response la respuesta.
+     */
+    private void respond(SelectionKey key, boolean binary, Message response) {
+        ByteBuffer out;
+        try {
+            out = binary ? encodeBinary(response) : encode(response);
+        } catch (IOException event) {
+            LOGGER.log(Level.SEVERE, "Fallo al serializar la respuesta: {0}", event.getMessage());
+            selectorTasks.add(() -> close(key));
+            selector.wakeup();
+            return;
+        }
+
+        selectorTasks.add(() -> {
+            if (key.isValid()) {
+                ((Connection) key.attachment()).out = out;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        });
+        selector.wakeup();
+    }
+
+    /**
+     * Escribe la respuesta pendiente y, cuando se ha enviado entera, vuelve a
+     * leer peticiones del cliente.
+     *
+     * @param key la clave del cliente.
+     * @throws IOException si falla la escritura.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(connection.out);
+        if (!connection.out.hasRemaining()) {
+            connection.out = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Deserializa el mensaje de una trama con la serialización de Java.
+     *
+     * @param array bytes de la trama.
+     * @param offset posición de inicio.
+     * @param length número de bytes.
+     * @return el mensaje, o {@code null} si el objeto no es un
+     * {@code Message}.
+     * @throws IOException si la trama no es válida.
+     * @throws ClassNotFoundException si el objeto es de una clase desconocida.
+     */
+    static Message decode(byte[] array, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(array, offset, length))) {
+            Object objectMessage = input.readObject();
+            return objectMessage instanceof Message ? (Message) objectMessage : null;
+        }
+    }
+
+    /**
+     * Decodifica el mensaje de una trama en formato binario.
+     *
+     * @param array bytes de la trama, empezando por la cabecera.
+     * @param offset posición de inicio.
+     * @param length número de bytes.
+     * @return el mensaje.
+     * @throws IOException si la trama no es válida.
+     */
+    static Message decodeBinary(byte[] array, int offset, int length) throws IOException {
+        return BinaryCodec.decode(array, offset + BinaryCodec.MAGIC_SIZE, length - BinaryCodec.MAGIC_SIZE);
+    }
+
+    /**
+     * Codifica un mensaje en formato binario en una trama con su longitud y la
+     * cabecera delante.
+     *
+     * @param message el mensaje a enviar.
+     * @return el búfer listo para escribir.
+     * @throws IOException si el mensaje no se puede codificar.
+     */
+    static ByteBuffer encodeBinary(Message message) throws IOException {
+        byte[] body = BinaryCodec.encode(message);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + BinaryCodec.MAGIC_SIZE + body.length);
+        frame.putInt(BinaryCodec.MAGIC_SIZE + body.length).putInt(BinaryCodec.MAGIC).put(body);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Serializa un mensaje en una trama con su longitud delante.
+     *
+     * @param message el mensaje a enviar.
+     * @return el búfer listo para escribir.
+     * @throws IOException si falla la serialización.
+     */
+    static ByteBuffer encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[HEADER_SIZE]);
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - HEADER_SIZE);
+        return frame;
+    }
+
+    /**
+     * Cierra la conexión de un cliente y libera su búfer de lectura.
+     *
+     * @param key la clave del cliente.
+     */
+    private void close(SelectionKey key) {
+        Object attachment = key.attachment();
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "Fallo al cerrar el canal: {0}", event.getMessage());
+        }
+        if (attachment instanceof Connection) {
+            Connection connection = (Connection) attachment;
+            if (connection.body != null) {
+                bufferPool.release(connection.body);
+                connection.body = null;
+            }
+            if (!connection.closed) {
+                connection.closed = true;
+                activeConnections.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Estado de lectura y escritura de una conexión de cliente. Solo lo usa el
+     * hilo del selector.
+     */
+    private static class Connection {
+
+        /**
+         * Cabecera con la longitud de la trama en curso.
+         */
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        /**
+         * Cuerpo de la trama en curso, o {@code null} si se está leyendo la
+         * cabecera.
+         */
+        private ByteBuffer body;
+
+        /**
+         * Respuesta pendiente de escribir, o {@code null}.
+         */
+        private ByteBuffer out;
+
+        /**
+         * Indica si la conexión ya se ha contabilizado como cerrada.
+         */
+        private boolean closed;
+    }
+}
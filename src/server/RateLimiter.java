@@ -0,0 +1,214 @@
+package server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limitador de frecuencia con un cubo de fichas ({@code token bucket}) por
+ * clave, por ejemplo por dirección IP o por login.
+ *
+ * <p>
+ * Cada cubo admite ráfagas de hasta {@code burst} peticiones y se rellena a
+ * razón de {@code rate} fichas por segundo. Los cubos se guardan en un
+ * {@link ConcurrentHashMap}, de modo que claves distintas no compiten por el
+ * mismo cerrojo, y cada uno solo se bloquea el instante de actualizar sus
+ * fichas.
+ * </p>
+ *
+ * <p>
+ * Para que el mapa no crezca sin límite, los cubos llenos que llevan más de
+ * {@code idleTimeout} sin usarse se eliminan: uno lleno equivale a uno nuevo.
+ * La limpieza no usa hilos propios; la hace, como mucho una vez por periodo,
+ * el hilo que consulta el limitador en ese momento.
+ * </p>
+ *
+ * @param <K> tipo de la clave.
+ * @author Sergio
+ */
+public class RateLimiter<K> {
+
+    /**
+     * Fichas que se añaden a cada cubo por nanosegundo.
+     */
+    private final double ratePerNano;
+
+    /**
+     * Capacidad de cada cubo.
+     */
+    private final double burst;
+
+    /**
+     * Tiempo sin uso tras el que un cubo lleno se elimina, en nanosegundos.
+     */
+    private final long idleNanos;
+
+    /**
+     * Cubos de cada clave.
+     */
+    private final ConcurrentHashMap<K, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Instante, en {@link System#nanoTime()}, de la próxima limpieza.
+     */
+    private final AtomicLong nextSweep;
+
+    /**
+     * Peticiones rechazadas y cubos eliminados por inactividad.
+     */
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Cubo de fichas de una clave. Su estado se protege con su propio
+     * monitor.
+     */
+    private final class Bucket {
+
+        private double tokens = burst;
+        private long updatedAt = System.nanoTime();
+
+        /**
+         * Indica que el cubo ya no está en el mapa y debe buscarse de nuevo.
+         */
+        private boolean removed;
+
+        /**
+         * Añade las fichas acumuladas desde la última actualización.
+         *
+         * @param now instante actual.
+         */
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - updatedAt) * ratePerNano);
+            updatedAt = now;
+        }
+    }
+
+    /**
+     * Crea el limitador.
+     *
+     * @param rate fichas que recupera cada cubo por segundo.
+     * @param burst capacidad de cada cubo, al menos 1.
+     * @param idleTimeout tiempo sin uso, en milisegundos, tras el que se
+     * elimina un cubo lleno.
+     */
+    public RateLimiter(double rate, int burst, long idleTimeout) {
+        this.ratePerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.nextSweep = new AtomicLong(System.nanoTime() + idleNanos);
+    }
+
+    /**
+     * Consume una ficha del cubo de la clave.
+     *
+     * @param key la clave.
+     * @return {@code true} si había ficha; {@code false} si la clave ha
+     * superado su límite.
+     */
+    public boolean tryAcquire(K key) {
+        long now = System.nanoTime();
+        sweep(now);
+        while (true) {
+            Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket());
+            synchronized (bucket) {
+                if (bucket.removed) {
+                    continue;
+                }
+                bucket.refill(now);
+                if (bucket.tokens >= 1) {
+                    bucket.tokens -= 1;
+                    return true;
+                }
+            }
+            limited.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Comprueba, sin consumir fichas, si la clave puede hacer una petición
+     * más. No crea cubo para las claves que no lo tienen.
+     *
+     * @param key la clave.
+     * @return {@code true} si la clave no ha agotado su límite.
+     */
+    public boolean isAllowed(K key) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            return true;
+        }
+        synchronized (bucket) {
+            bucket.refill(System.nanoTime());
+            if (bucket.removed || bucket.tokens >= 1) {
+                return true;
+            }
+        }
+        limited.increment();
+        return false;
+    }
+
+    /**
+     * Olvida el cubo de una clave, devolviéndole todas sus fichas.
+     *
+     * @param key la clave.
+     */
+    public void reset(K key) {
+        Bucket bucket = buckets.remove(key);
+        if (bucket != null) {
+            synchronized (bucket) {
+                bucket.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Elimina los cubos llenos e inactivos si ha llegado el momento. Solo
+     * limpia el hilo que consigue adelantar el instante de la próxima
+     * limpieza.
+     *
+     * @param now instante actual.
+     */
+    private void sweep(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + idleNanos)) {
+            return;
+        }
+        Iterator<Map.Entry<K, Bucket>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+            Bucket bucket = entries.next().getValue();
+            synchronized (bucket) {
+                if (now - bucket.updatedAt > idleNanos
+                        && bucket.tokens + (now - bucket.updatedAt) * ratePerNano >= burst) {
+                    bucket.removed = true;
+                    entries.remove();
+                    evicted.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return número de claves con cubo.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * @return peticiones rechazadas por superar el límite.
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * @return cubos eliminados por inactividad.
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+}
@@ -0,0 +1,126 @@
+package server;
+
+import dbserver.ApplicationServerFactory;
+import dbserver.Dao;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilidades.Message;
+import utilidades.MessageType;
+import utilidades.User;
+
+/**
+ * Calentamiento del servidor antes de aceptar clientes.
+ *
+ * <p>
+ * Repite el camino de un inicio de sesión para que el compilador JIT compile
+ * el código más usado antes de que llegue el primer cliente: la serialización
+ * y la codificación binaria de las tramas de {@link NioServer} y, en la base
+ * de datos, la conexión del pool, la sentencia preparada, la lectura del
+ * usuario y la verificación de la contraseña, de forma síncrona y asíncrona.
+ * </p>
+ *
+ * <p>
+ * Se usa un usuario real: el primer login de cada base de datos, leído con
+ * una consulta de una sola fila, con una contraseña cualquiera. Mediante
+ * {@link Dao#warmUpSignIn(User, boolean, boolean)} no se escribe nada ni se
+ * tocan las cachés. Cada verificación cuesta un cálculo de PBKDF2
+ * ({@code db.passwordHashTarget} milisegundos), así que solo se verifica una
+ * de cada {@link #VERIFY_INTERVAL} iteraciones: el bucle interno de PBKDF2 se
+ * compila con pocas llamadas, y el resto del camino necesita muchas. Si la
+ * base de datos no tiene usuarios solo se calientan las tramas.
+ * </p>
+ *
+ * @author Sergio
+ */
+final class Warmup {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(Warmup.class.getName());
+
+    /**
+     * Iteraciones entre dos verificaciones de la contraseña.
+     */
+    private static final int VERIFY_INTERVAL = 64;
+
+    /**
+     * Contraseña con la que se verifica el hash del usuario real.
+     */
+    private static final String PASSWORD = "warmup";
+
+    private Warmup() {
+    }
+
+    /**
+     * Ejecuta el calentamiento.
+     *
+     * @param factory la factoría ya creada.
+     * @param iterations número de inicios de sesión simulados.
+     * @return número de iteraciones completadas.
+     */
+    static int run(ApplicationServerFactory factory, int iterations) {
+        if (iterations <= 0) {
+            return 0;
+        }
+        List<Dao> daos = new ArrayList<>();
+        List<String> logins = new ArrayList<>();
+        for (Dao dao : factory.getDaos()) {
+            try {
+                List<User> first = dao.exportUsers("", 1);
+                if (!first.isEmpty()) {
+                    daos.add(dao);
+                    logins.add(first.get(0).getLogin());
+                }
+            } catch (SQLException event) {
+                LOGGER.log(Level.WARNING, "No se pudo leer un usuario para el calentamiento: {0}", event.getMessage());
+            }
+        }
+        if (daos.isEmpty()) {
+            LOGGER.info("No hay usuarios para el calentamiento; solo se calientan las tramas.");
+        }
+
+        int done = 0;
+        try {
+            for (; done < iterations; done++) {
+                User user = new User();
+                user.setLogin(daos.isEmpty() ? "warmup@warmup.invalid" : logins.get(done % logins.size()));
+                user.setPass(PASSWORD);
+                Message request = roundTrip(new Message(MessageType.SIGN_IN_REQUEST, user));
+                Message response;
+                if (daos.isEmpty()) {
+                    response = new Message(MessageType.SIGNIN_ERROR, null);
+                } else {
+                    User decoded = (User) request.getObject();
+                    response = daos.get(done % daos.size())
+                            .warmUpSignIn(decoded, done % 2 == 1, done % VERIFY_INTERVAL == 0).join();
+                }
+                roundTrip(response);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException event) {
+            LOGGER.log(Level.WARNING, "Calentamiento interrumpido tras {0} iteraciones: {1}",
+                    new Object[]{String.valueOf(done), event.getMessage()});
+        }
+        return done;
+    }
+
+    /**
+     * Codifica y decodifica un mensaje con los dos formatos de trama.
+     *
+     * @param message el mensaje.
+     * @return el mensaje decodificado del formato binario.
+     * @throws IOException si falla la codificación.
+     * @throws ClassNotFoundException si falla la deserialización.
+     */
+    private static Message roundTrip(Message message) throws IOException, ClassNotFoundException {
+        ByteBuffer frame = NioServer.encode(message);
+        Message decoded = NioServer.decode(frame.array(), NioServer.HEADER_SIZE, frame.remaining() - NioServer.HEADER_SIZE);
+        ByteBuffer binary = NioServer.encodeBinary(decoded);
+        return NioServer.decodeBinary(binary.array(), NioServer.HEADER_SIZE, binary.remaining() - NioServer.HEADER_SIZE);
+    }
+}
@@ -1,12 +1,25 @@
 package server;
 
 import dbserver.ApplicationServerFactory;
+import dbserver.ServerConfig;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import utilidades.Message;
 import utilidades.MessageType;
 import utilidades.User;
@@ -20,6 +33,29 @@ import utilidades.User;
  * objetos de tipo Message para coordinar acciones como registro o inicio de
  * sesión de usuarios.
  *
+ * <p>
+ * Por defecto atiende un único mensaje por conexión. Si {@code server.keepAlive}
+ * está activado, el cliente puede enviar varios mensajes por el mismo socket:
+ * la conexión se cierra cuando el cliente la cierra, tras
+ * {@code server.keepAliveIdleTimeout} milisegundos sin recibir nada o tras
+ * {@code server.keepAliveMaxRequests} peticiones. Los clientes que envían un
+ * solo mensaje y cierran siguen funcionando en ambos modos.
+ *
+ * <p>
+ * Si el cliente empieza la conexión con {@link BinaryCodec#MAGIC}, los
+ * mensajes se leen y escriben con el formato binario de {@link BinaryCodec} en
+ * lugar de con la serialización de Java. Si en
+ * {@code server.protocolDetectTimeout} milisegundos no ha enviado nada, se usa
+ * la serialización de Java y se le envía su cabecera, como hacía el servidor
+ * antes de admitir el formato binario.
+ *
+ * <p>
+ * Si el servidor usa un {@link AdmissionController}, cada petición pide plaza
+ * en cuanto llega y antes de deserializarse. Si se rechaza, el cliente recibe
+ * {@code CONNECTION_ERROR} y la conexión se cierra. Lo mismo ocurre si el
+ * cliente supera el límite de peticiones de su dirección IP (ver
+ * {@link ClientLimits}).
+ *
  * @author Sergio
  */
 public class Worker implements Runnable {
@@ -29,6 +65,18 @@ public class Worker implements Runnable {
      */
     private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
 
+    /**
+     * Configuración del modo de conexión persistente.
+     */
+    private static final boolean KEEP_ALIVE = ServerConfig.getBoolean("server.keepAlive", false);
+    private static final int KEEP_ALIVE_IDLE_TIMEOUT = ServerConfig.getInt("server.keepAliveIdleTimeout", 30000);
+    private static final int KEEP_ALIVE_MAX_REQUESTS = ServerConfig.getInt("server.keepAliveMaxRequests", 1000);
+
+    /**
+     * Tiempo máximo de espera de los primeros bytes para elegir el formato.
+     */
+    private static final int PROTOCOL_DETECT_TIMEOUT = ServerConfig.getInt("server.protocolDetectTimeout", 100);
+
     /**
      * Socket del cliente conectado al servidor.
      */
@@ -44,6 +92,33 @@ public class Worker implements Runnable {
      */
     private ObjectOutputStream outputStream;
 
+    /**
+     * Streams de entrada y salida del formato binario, si el cliente lo ha
+     * elegido.
+     */
+    private DataInputStream binaryInput;
+    private DataOutputStream binaryOutput;
+
+    /**
+     * Registro de conexiones activas del que se elimina al terminar.
+     */
+    private ConnectionRegistry registry;
+
+    /**
+     * Control de admisión de peticiones, o {@code null} si no se usa.
+     */
+    private AdmissionController admission;
+
+    /**
+     * Límites de frecuencia de los clientes, o {@code null} si no se usan.
+     */
+    private ClientLimits limits;
+
+    /**
+     * Latencia de las peticiones atendidas, por tipo de mensaje.
+     */
+    private static final Map<MessageType, Histogram> REQUEST_LATENCY = new ConcurrentHashMap<>();
+
     /**
      * Constructor que inicializa el socket de cliente.
      *
@@ -51,57 +126,187 @@ public class Worker implements Runnable {
      * comunicará
      */
     public Worker(Socket socketClient) {
+        this(socketClient, null);
+    }
+
+    /**
+     * Constructor que inicializa el socket de cliente y registra la conexión
+     * como activa.
+     *
+     * @param socketClient el socket del cliente con el que el servidor se
+     * comunicará
+     * @param registry registro de conexiones activas, o {@code null}
+     */
+    public Worker(Socket socketClient, ConnectionRegistry registry) {
+        this(socketClient, registry, null);
+    }
+
+    /**
+     * Constructor que inicializa el socket de cliente, registra la conexión
+     * como activa y somete sus peticiones al control de admisión.
+     *
+     * @param socketClient el socket del cliente con el que el servidor se
+     * comunicará
+     * @param registry registro de conexiones activas, o {@code null}
+     * @param admission control de admisión, o {@code null}
+     */
+    public Worker(Socket socketClient, ConnectionRegistry registry, AdmissionController admission) {
+        this(socketClient, registry, admission, null);
+    }
+
+    /**
+     * Constructor que inicializa el socket de cliente, registra la conexión
+     * como activa y somete sus peticiones al control de admisión y a los
+     * límites de frecuencia.
+     *
+     * @param socketClient el socket del cliente con el que el servidor se
+     * comunicará
+     * @param registry registro de conexiones activas, o {@code null}
+     * @param admission control de admisión, o {@code null}
+     * @param limits límites de frecuencia de los clientes, o {@code null}
+     */
+    public Worker(Socket socketClient, ConnectionRegistry registry, AdmissionController admission,
+            ClientLimits limits) {
         this.socketClient = socketClient;
+        this.registry = registry;
+        this.admission = admission;
+        this.limits = limits;
+        if (registry != null) {
+            registry.register(this);
+        }
     }
 
     /**
      * Método principal del hilo que establece la comunicación con el cliente.
      *
      * <p>
-     * Inicializa los streams de entrada y salida, recibe el mensaje y lo
-     * procesa según el tipo de solicitud del cliente.
+     * Inicializa los streams de entrada y salida, recibe los mensajes y los
+     * procesa según el tipo de solicitud del cliente. En modo persistente
+     * sigue leyendo mensajes hasta que el cliente cierra, se agota el tiempo
+     * de inactividad o se alcanza el límite de peticiones.
      */
     @Override
     public void run() {
+        int served = 0;
         try {
-            // Inicializa los streams para enviar y recibir objetos
-            outputStream = new ObjectOutputStream(socketClient.getOutputStream());
-            inputStream = new ObjectInputStream(socketClient.getInputStream());
+            // Las respuestas son pequeñas: se envían sin esperar al algoritmo de Nagle
+            socketClient.setTcpNoDelay(true);
 
-            // Lee el objeto enviado por el cliente
-            Object objectMessage = inputStream.readObject();
-
-            // Verifica si el objeto recibido es del tipo Message
-            if (objectMessage instanceof Message) {
-                Message message = (Message) objectMessage;
-                processMessage(message); // Procesa el mensaje recibido
+            // Inicializa los streams según el formato que elige el cliente. Si no
+            // escribe nada a tiempo, espera la cabecera de la serialización de Java
+            InputStream input = new BufferedInputStream(socketClient.getInputStream());
+            socketClient.setSoTimeout(PROTOCOL_DETECT_TIMEOUT);
+            boolean binary = BinaryCodec.detect(input);
+            socketClient.setSoTimeout(KEEP_ALIVE ? KEEP_ALIVE_IDLE_TIMEOUT : 0);
+            if (binary) {
+                binaryInput = new DataInputStream(input);
+                binaryOutput = new DataOutputStream(new BufferedOutputStream(socketClient.getOutputStream()));
+            } else {
+                outputStream = new ObjectOutputStream(new BufferedOutputStream(socketClient.getOutputStream()));
+                // El cliente espera la cabecera del stream antes de crear su ObjectInputStream
+                outputStream.flush();
+                inputStream = new ObjectInputStream(input);
             }
 
+            do {
+                if (admission != null || limits != null) {
+                    // Comprueba los límites cuando llega la petición y antes de deserializarla
+                    awaitRequest(input);
+                }
+                if (limits != null && !limits.allowClient(socketClient.getInetAddress())) {
+                    sendResponse(ClientLimits.limited());
+                    discardPending(input);
+                    break;
+                }
+                if (admission != null && !admission.acquire()) {
+                    sendResponse(AdmissionController.overloaded());
+                    discardPending(input);
+                    break;
+                }
+                long start = System.nanoTime();
+                Message response = null;
+                try {
+                    // Lee el mensaje enviado por el cliente
+                    Message message = readMessage();
+                    if (message != null) {
+                        response = processMessage(message); // Procesa el mensaje recibido
+                    } else {
+                        // No es un Message: se responde para que el cliente no espere
+                        LOGGER.warning("El objeto recibido no es un mensaje.");
+                        sendResponse(new Message(MessageType.BAD_RESPONSE, null));
+                    }
+                } finally {
+                    if (admission != null && response == null) {
+                        admission.cancel();
+                    } else if (admission != null) {
+                        admission.release(System.nanoTime() - start,
+                                response.getType() == MessageType.CONNECTION_ERROR);
+                    }
+                }
+                served++;
+            } while (KEEP_ALIVE && served < KEEP_ALIVE_MAX_REQUESTS);
+
+        } catch (EOFException event) {
+            // El cliente ha cerrado la conexión entre dos mensajes
+            if (served == 0) {
+                LOGGER.warning("El cliente cerró la conexión sin enviar ningún mensaje.");
+            }
+        } catch (SocketTimeoutException event) {
+            LOGGER.log(Level.INFO, "Conexión inactiva cerrada tras {0} peticiones.", served);
+        } catch (InterruptedException event) {
+            // El servidor se está parando mientras la petición esperaba plaza
+            Thread.currentThread().interrupt();
         } catch (IOException | ClassNotFoundException event) {
             // Manejo de excepciones para errores de E/S o clases no encontradas
             if (event instanceof IOException) {
-                LOGGER.severe("Fallo en la lectura del archivo: " + event.getMessage());
+                LOGGER.log(Level.SEVERE, "Fallo en la lectura del archivo: {0}", event.getMessage());
             } else {
-                LOGGER.severe("Clase no encontrada: " + event.getMessage());
+                LOGGER.log(Level.SEVERE, "Clase no encontrada: {0}", event.getMessage());
             }
         } finally {
             // Cierra la conexión después de terminar la comunicación
             closeConnection();
+            finish();
         }
     }
 
-    // METODOS PRIVADOS
     /**
-     * Procesa el mensaje recibido del cliente y responde según el tipo de
-     * solicitud.
+     * Cierra el socket del cliente para desbloquear al hilo que lo atiende.
+     * Se usa al parar el servidor.
+     */
+    void abort() {
+        try {
+            socketClient.close();
+        } catch (IOException event) {
+            LOGGER.log(Level.WARNING, "Fallo al cerrar el socket del cliente: {0}", event.getMessage());
+        }
+    }
+
+    /**
+     * Elimina la conexión del registro de conexiones activas. Se llama al
+     * terminar o si el {@code Worker} nunca llega a ejecutarse.
+     */
+    void finish() {
+        if (registry != null) {
+            registry.unregister(this);
+        }
+    }
+
+    /**
+     * Resuelve un mensaje de cliente según el tipo de solicitud y devuelve la
+     * respuesta, sin depender de cómo se ha recibido. Lo usa este
+     * {@code Worker}, que dedica un hilo a cada conexión y debe esperar la
+     * respuesta antes de leer la siguiente petición; el servidor no bloqueante
+     * {@link NioServer} usa {@link #dispatchAsync(Message)}.
      *
      * @param message el mensaje recibido, que contiene el tipo de solicitud y
      * datos del usuario
+     * @return el mensaje de respuesta para el cliente
      */
-    private void processMessage(Message message) {
+    static Message dispatch(Message message) {
         Message response;
         // Extrae el objeto User del mensaje
-        User user = (User) message.getObject();
+        User user = message.getObject() instanceof User ? (User) message.getObject() : null;
 
         // Verifica si el usuario no es nulo antes de procesar el mensaje
         if (user == null) {
@@ -119,7 +324,130 @@ public class Worker implements Runnable {
                     response = new Message(MessageType.BAD_RESPONSE, user); // Respuesta para tipo desconocido
             }
         }
+        return response;
+    }
+
+    /**
+     * Versión asíncrona de {@link #dispatch(Message)}: devuelve enseguida un
+     * futuro que se completa con la respuesta, sin ocupar el hilo que llama
+     * mientras se resuelve la petición.
+     *
+     * @param message el mensaje recibido, que contiene el tipo de solicitud y
+     * datos del usuario
+     * @return futuro con el mensaje de respuesta para el cliente
+     */
+    static CompletableFuture<Message> dispatchAsync(Message message) {
+        // Extrae el objeto User del mensaje
+        User user = message.getObject() instanceof User ? (User) message.getObject() : null;
+
+        // Verifica si el usuario no es nulo antes de procesar el mensaje
+        if (user == null) {
+            return CompletableFuture.completedFuture(new Message(MessageType.BAD_RESPONSE, null)); // Respuesta negativa
+        }
+        // Procesa la solicitud según el tipo de mensaje (registro o inicio de sesión)
+        switch (message.getType()) {
+            case SIGN_UP_REQUEST:
+                return ApplicationServerFactory.getInstance().accessAsync().signUpAsync(user);
+            case SIGN_IN_REQUEST:
+                return ApplicationServerFactory.getInstance().accessAsync().signInAsync(user);
+            default:
+                return CompletableFuture.completedFuture(new Message(MessageType.BAD_RESPONSE, user)); // Respuesta para tipo desconocido
+        }
+    }
+
+    // METODOS PRIVADOS
+    /**
+     * Lee el siguiente mensaje del cliente en el formato de la conexión.
+     *
+     * @return el mensaje, o {@code null} si el objeto recibido no es un
+     * {@code Message}.
+     * @throws IOException si falla la lectura o el cliente ha cerrado.
+     * @throws ClassNotFoundException si el objeto recibido es de una clase
+     * desconocida.
+     */
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        if (binaryInput != null) {
+            return BinaryCodec.readFrame(binaryInput);
+        }
+        // Verifica si el objeto recibido es del tipo Message
+        Object objectMessage = inputStream.readObject();
+        return objectMessage instanceof Message ? (Message) objectMessage : null;
+    }
+
+    /**
+     * Procesa el mensaje recibido del cliente y responde según el tipo de
+     * solicitud.
+     *
+     * @param message el mensaje recibido, que contiene el tipo de solicitud y
+     * datos del usuario
+     * @return la respuesta enviada, o {@code null} si la petición se ha
+     * rechazado por los límites de frecuencia sin llegar al {@code Dao}
+     */
+    private Message processMessage(Message message) {
+        Message rejected = limits == null ? null : limits.check(message);
+        if (rejected != null) {
+            sendResponse(rejected);
+            return null;
+        }
+        long start = System.nanoTime();
+        Message response = dispatch(message);
         sendResponse(response); // Envía la respuesta al cliente
+        recordLatency(message, start);
+        if (limits != null) {
+            limits.record(message, response);
+        }
+        return response;
+    }
+
+    /**
+     * Registra en las métricas la latencia de una petición atendida, según su
+     * tipo.
+     *
+     * @param message la petición.
+     * @param startNanos instante en que se empezó a resolver, obtenido con
+     * {@link System#nanoTime()}.
+     */
+    static void recordLatency(Message message, long startNanos) {
+        MessageType type = message.getType();
+        if (type == null) {
+            return;
+        }
+        Histogram histogram = REQUEST_LATENCY.get(type);
+        if (histogram == null) {
+            histogram = REQUEST_LATENCY.computeIfAbsent(type,
+                    key -> MetricsRegistry.getInstance().histogram("worker_request_latency_us", "type", key.name()));
+        }
+        histogram.recordSince(startNanos);
+    }
+
+    /**
+     * Espera a que el cliente empiece a enviar la siguiente petición, sin
+     * consumir nada de ella.
+     *
+     * @param input el stream de entrada del socket.
+     * @throws IOException si el cliente ha cerrado o falla la lectura.
+     */
+    private static void awaitRequest(InputStream input) throws IOException {
+        input.mark(1);
+        if (input.read() < 0) {
+            throw new EOFException();
+        }
+        input.reset();
+    }
+
+    /**
+     * Descarta lo que el cliente ya ha enviado de una petición rechazada, para
+     * que el cierre del socket no le llegue como un reinicio de la conexión
+     * antes de que lea la respuesta.
+     *
+     * @param input el stream de entrada del socket.
+     */
+    private static void discardPending(InputStream input) {
+        try {
+            input.skip(input.available());
+        } catch (IOException event) {
+            LOGGER.log(Level.FINE, "No se pudo descartar la petición rechazada: {0}", event.getMessage());
+        }
     }
 
     /**
@@ -129,9 +457,17 @@ public class Worker implements Runnable {
      */
     private void sendResponse(Message response) {
         try {
+            if (binaryOutput != null) {
+                BinaryCodec.writeFrame(binaryOutput, response);
+                return;
+            }
             // Envía el objeto de respuesta y asegura que se envíen los datos
             outputStream.writeObject(response);
             outputStream.flush();
+            if (KEEP_ALIVE) {
+                // Olvida los objetos ya enviados para no retenerlos en memoria
+                outputStream.reset();
+            }
         } catch (IOException event) {
             LOGGER.log(Level.SEVERE, "Fallo en la lectura o escritura del archivo: {0}", event.getMessage());
             new Message(MessageType.BAD_RESPONSE, event); // Envia respuesta negativa en caso de error
@@ -147,13 +483,19 @@ public class Worker implements Runnable {
      */
     private void closeConnection() {
         try {
-            // Cierra el stream de entrada si está inicializado
+            // Cierra primero los streams de salida, que vacían su búfer
+            if (outputStream != null) {
+                outputStream.close();
+            }
+            if (binaryOutput != null) {
+                binaryOutput.close();
+            }
+            // Cierra los streams de entrada si están inicializados
             if (inputStream != null) {
                 inputStream.close();
             }
-            // Cierra el stream de salida si está inicializado
-            if (outputStream != null) {
-                outputStream.close();
+            if (binaryInput != null) {
+                binaryInput.close();
             }
             // Cierra el socket del cliente si está abierto
             if (socketClient != null && !socketClient.isClosed()) {
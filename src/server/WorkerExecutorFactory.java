@@ -0,0 +1,144 @@
+package server;
+
+import dbserver.ServerConfig;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clase que crea el ejecutor en el que el servidor lanza los {@link Worker} de
+ * cada cliente.
+ *
+ * <p>
+ * El modo se elige con {@code server.executor} en el archivo de propiedades
+ * {@code dbserver.dbConnection}:
+ * </p>
+ * <ul>
+ * <li>{@code bounded} (por defecto): un pool de {@code server.maxThreads} hilos
+ * de plataforma con una cola de {@code server.queueSize} clientes. Cuando la
+ * cola está llena se aplica {@code server.rejectionPolicy}: {@code abort}
+ * rechaza al cliente y {@code callerRuns} atiende al cliente en el hilo que
+ * acepta conexiones, frenando así la aceptación.</li>
+ * <li>{@code virtual}: un hilo virtual por cliente. Requiere Java 21; en
+ * versiones anteriores se usa el modo {@code bounded}.</li>
+ * </ul>
+ *
+ * @author Sergio
+ */
+public final class WorkerExecutorFactory {
+
+    /**
+     * Logger para registrar eventos y errores.
+     */
+    private static final Logger LOGGER = Logger.getLogger(WorkerExecutorFactory.class.getName());
+
+    /**
+     * Valores por defecto del modo {@code bounded}.
+     */
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Constructor privado, la clase solo tiene métodos estáticos.
+     */
+    private WorkerExecutorFactory() {
+    }
+
+    /**
+     * Crea el ejecutor configurado en el archivo de propiedades.
+     *
+     * @return el ejecutor para los {@code Worker}.
+     */
+    public static ExecutorService create() {
+        return create(1);
+    }
+
+    /**
+     * Crea uno de varios ejecutores que se reparten la configuración, como
+     * los de cada aceptador: en el modo {@code bounded} cada uno recibe su
+     * parte de los hilos y de la cola.
+     *
+     * @param shares número de ejecutores entre los que se reparte.
+     * @return el ejecutor para los {@code Worker}.
+     */
+    public static ExecutorService create(int shares) {
+        int parts = Math.max(1, shares);
+        String mode = ServerConfig.getString("server.executor", "bounded");
+        if ("virtual".equalsIgnoreCase(mode)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                LOGGER.info("Ejecutor de clientes: un hilo virtual por cliente.");
+                return virtual;
+            }
+            LOGGER.warning("Los hilos virtuales requieren Java 21; se usa el ejecutor acotado.");
+        } else if (!"bounded".equalsIgnoreCase(mode)) {
+            LOGGER.log(Level.WARNING, "Modo de ejecutor desconocido: {0}; se usa el ejecutor acotado.", mode);
+        }
+        return newBoundedExecutor(
+                ServerConfig.getInt("server.maxThreads", DEFAULT_MAX_THREADS) / parts,
+                ServerConfig.getInt("server.queueSize", DEFAULT_QUEUE_SIZE) / parts,
+                ServerConfig.getString("server.rejectionPolicy", "abort"));
+    }
+
+    /**
+     * Crea un pool acotado de hilos de plataforma.
+     *
+     * @param maxThreads número de hilos del pool.
+     * @param queueSize número de clientes que pueden esperar en cola.
+     * @param rejectionPolicy {@code abort} o {@code callerRuns}.
+     * @return el ejecutor acotado.
+     */
+    public static ExecutorService newBoundedExecutor(int maxThreads, int queueSize, String rejectionPolicy) {
+        int threads = Math.max(1, maxThreads);
+        RejectedExecutionHandler handler = "callerRuns".equalsIgnoreCase(rejectionPolicy)
+                ? new ThreadPoolExecutor.CallerRunsPolicy()
+                : new ThreadPoolExecutor.AbortPolicy();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), new WorkerThreadFactory(), handler);
+        // Los hilos ociosos se liberan para no ocupar memoria sin carga
+        executor.allowCoreThreadTimeOut(true);
+        LOGGER.log(Level.INFO, "Ejecutor de clientes: {0} hilos, cola de {1}, política {2}.",
+                new Object[]{threads, queueSize, rejectionPolicy});
+        return executor;
+    }
+
+    /**
+     * Crea un ejecutor de un hilo virtual por tarea mediante reflexión, para
+     * poder compilar con versiones anteriores a Java 21.
+     *
+     * @return el ejecutor, o {@code null} si la plataforma no tiene hilos
+     * virtuales.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException event) {
+            return null;
+        }
+    }
+
+    /**
+     * Fábrica de hilos con nombre para identificar a los {@code Worker} en los
+     * volcados de hilos.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        /**
+         * Contador para numerar los hilos.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "worker-" + counter.incrementAndGet());
+        }
+    }
+}